@@ -0,0 +1,106 @@
+package com.datmt.agent;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.matcher.ElementMatchers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Compares the per-call cost of the advice variants on a trivial method:
+ * the shadow stack variant ({@link MethodLoggingAdvice}, mode=TREE) and the
+ * {@code @Advice.Enter} variant ({@link TimingAdvice}, mode=TIMING), each inlined and delegating (inline=false).
+ * Outputs and caller capture are turned off so only the advice itself is measured.
+ * <p>
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdviceVariantBenchmark {
+
+    /**
+     * The method being instrumented.
+     */
+    public static class Workload implements LongUnaryOperator {
+        @Override
+        public long applyAsLong(long x) {
+            return x * 31 + 7;
+        }
+    }
+
+    private LongUnaryOperator plain;
+    private LongUnaryOperator tree;
+    private LongUnaryOperator timing;
+    private LongUnaryOperator treeDelegating;
+    private LongUnaryOperator timingDelegating;
+    private long x;
+
+    @Setup
+    public void setUp() throws Exception {
+        MethodLoggingAdvice.init(MethodLoggingAdvice.NO_OUTPUT, MethodLoggingAdvice.NO_OUTPUT, 0);
+        plain = new Workload();
+        tree = weave(MethodLoggingAdvice.class);
+        timing = weave(TimingAdvice.class);
+        treeDelegating = weave(MethodLoggingAdvice.Delegating.class);
+        timingDelegating = weave(TimingAdvice.Delegating.class);
+    }
+
+    /**
+     * Loads a copy of {@link Workload} with the given advice woven in, in its own class loader.
+     */
+    public static LongUnaryOperator weave(Class<?> adviceClass) throws Exception {
+        Class<?> woven = new ByteBuddy()
+                .redefine(Workload.class)
+                .visit(Advice.withCustomMapping()
+                        .bind(MethodIdMapping.INSTANCE)
+                        .bind(TriggerMapping.INSTANCE)
+                        .bind(CapturedArgumentsMapping.INSTANCE)
+                        .to(adviceClass)
+                        .on(ElementMatchers.named("applyAsLong")))
+                .make()
+                .load(Workload.class.getClassLoader(), ClassLoadingStrategy.Default.CHILD_FIRST)
+                .getLoaded();
+        return (LongUnaryOperator) woven.getDeclaredConstructor().newInstance();
+    }
+
+    @Benchmark
+    public long baseline() {
+        return plain.applyAsLong(x++);
+    }
+
+    @Benchmark
+    public long shadowStack() {
+        return tree.applyAsLong(x++);
+    }
+
+    @Benchmark
+    public long enterHandoff() {
+        return timing.applyAsLong(x++);
+    }
+
+    @Benchmark
+    public long shadowStackDelegating() {
+        return treeDelegating.applyAsLong(x++);
+    }
+
+    @Benchmark
+    public long enterHandoffDelegating() {
+        return timingDelegating.applyAsLong(x++);
+    }
+}
@@ -0,0 +1,91 @@
+package com.datmt.bench;
+
+import com.datmt.agent.MethodLoggingAdvice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares caller resolution through {@code Thread.getStackTrace()} (the previous implementation)
+ * with the bounded {@link StackWalker} walk of {@link MethodLoggingAdvice#getCallerMethods(int)}
+ * at several stack depths. The benchmark method recurses to the requested depth before resolving the callers.
+ * It lives outside the agent package because frames of that package are never reported as callers.
+ * <p>
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallerResolutionBenchmark {
+
+    @Param({"10", "50", "150"})
+    public int stackDepth;
+
+    @Param({"1", "3"})
+    public int callerDepth;
+
+    @Benchmark
+    public String stackTrace() {
+        return recurse(stackDepth, true);
+    }
+
+    @Benchmark
+    public String stackWalker() {
+        return recurse(stackDepth, false);
+    }
+
+    private String recurse(int remaining, boolean legacy) {
+        if (remaining > 0) {
+            return recurse(remaining - 1, legacy);
+        }
+        return legacy ? getCallerMethodsFromStackTrace(callerDepth) : MethodLoggingAdvice.getCallerMethods(callerDepth);
+    }
+
+    /**
+     * The previous implementation, which materializes the whole stack on every call.
+     */
+    public static String getCallerMethodsFromStackTrace(int callerDepth) {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        String agentPackage = MethodLoggingAdvice.class.getPackageName() + ".";
+        List<String> callers = new ArrayList<>();
+
+        boolean foundInstrumentedMethod = false;
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.startsWith(agentPackage)) {
+                continue;
+            }
+            if (className.equals(Thread.class.getName()) ||
+                    frame.getMethodName().equals("getCallerMethodsFromStackTrace")) {
+                continue;
+            }
+            if (!foundInstrumentedMethod) {
+                foundInstrumentedMethod = true;
+                continue;
+            }
+            callers.add(className + "." + frame.getMethodName() + ":" + frame.getLineNumber());
+            if (callers.size() >= callerDepth) {
+                break;
+            }
+        }
+
+        if (callers.isEmpty()) {
+            return "ENTRYPOINT_OF_THREAD";
+        }
+        return String.join(" <- ", callers);
+    }
+}
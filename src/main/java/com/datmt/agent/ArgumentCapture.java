@@ -0,0 +1,128 @@
+package com.datmt.agent;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides, per method and at transform time, which arguments have their runtime type captured.
+ * Configured with "captureArgs", a comma-separated list of rules of the form
+ * {@code <type name prefix>[#<method name>][:<index>|<index>...]}, or {@code *} for all methods.
+ * Without indices every declared parameter is captured. Methods that match no rule capture nothing.
+ */
+public class ArgumentCapture {
+
+    /**
+     * A single "captureArgs" rule.
+     */
+    public static class Rule {
+        public final String typePrefix;
+        public final String methodName; // null for any method
+        public final int[] indices;     // null for all parameters
+
+        public Rule(String typePrefix, String methodName, int[] indices) {
+            this.typePrefix = typePrefix;
+            this.methodName = methodName;
+            this.indices = indices;
+        }
+    }
+
+    public static final int[] NONE = new int[0];
+
+    // The configured rules, set by the agent premain
+    public static List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Initializes the rules from the "captureArgs" option.
+     *
+     * @param captureArgs The option value, or null to capture nothing.
+     */
+    public static void init(String captureArgs) {
+        rules = parseRules(captureArgs);
+    }
+
+    /**
+     * Parses the "captureArgs" option.
+     *
+     * @param captureArgs The option value, e.g. "com.example.OrderService#placeOrder:0|2,com.example.util".
+     * @return The rules.
+     * @throws IllegalArgumentException if an index is not a non-negative number.
+     */
+    public static List<Rule> parseRules(String captureArgs) {
+        List<Rule> parsed = new ArrayList<>();
+        if (captureArgs == null || captureArgs.trim().isEmpty()) {
+            return parsed;
+        }
+
+        for (String entry : captureArgs.split(",")) {
+            String rule = entry.trim();
+            if (rule.isEmpty()) {
+                continue;
+            }
+
+            int[] indices = null;
+            int colon = rule.indexOf(':');
+            if (colon >= 0) {
+                indices = Arrays.stream(rule.substring(colon + 1).split("\\|"))
+                        .map(String::trim)
+                        .filter(s -> !s.isEmpty())
+                        .mapToInt(s -> {
+                            int index = Helpers.fromString(s, -1);
+                            if (index < 0) {
+                                throw new IllegalArgumentException("Invalid parameter index in 'captureArgs': " + s);
+                            }
+                            return index;
+                        })
+                        .toArray();
+                rule = rule.substring(0, colon);
+            }
+
+            String methodName = null;
+            int hash = rule.indexOf('#');
+            if (hash >= 0) {
+                methodName = rule.substring(hash + 1);
+                rule = rule.substring(0, hash);
+            }
+
+            String typePrefix = rule.equals("*") ? "" : rule;
+            parsed.add(new Rule(typePrefix, methodName, indices));
+        }
+        return parsed;
+    }
+
+    /**
+     * Gets the indices of the parameters to capture for a method.
+     *
+     * @param type   The instrumented type.
+     * @param method The instrumented method.
+     * @return The declared parameter indices to capture, in ascending order; empty if capture is off.
+     */
+    public static int[] indicesFor(TypeDescription type, MethodDescription method) {
+        int parameterCount = method.getParameters().size();
+        for (Rule rule : rules) {
+            if (!type.getName().startsWith(rule.typePrefix)) {
+                continue;
+            }
+            if (rule.methodName != null && !rule.methodName.equals(method.getName())) {
+                continue;
+            }
+
+            if (rule.indices == null) {
+                int[] all = new int[parameterCount];
+                for (int i = 0; i < parameterCount; i++) {
+                    all[i] = i;
+                }
+                return all;
+            }
+            return Arrays.stream(rule.indices)
+                    .filter(i -> i < parameterCount)
+                    .distinct()
+                    .sorted()
+                    .toArray();
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,128 @@
+package com.datmt.agent;
+
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.utility.JavaModule;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports how much bytecode the advice adds to each instrumented class, enabled with "bytecodeReport=true".
+ * For every transformed class it compares the original and woven class files and counts the methods
+ * whose code grew past HotSpot's default inlining limits (MaxInlineSize=35, FreqInlineSize=325 bytes).
+ * Totals are printed at shutdown.
+ */
+public class BytecodeReport extends AgentBuilder.Listener.Adapter {
+
+    // HotSpot defaults: methods above these bytecode sizes are not inlined (resp. not inlined when hot)
+    public static final int MAX_INLINE_SIZE = 35;
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    public final AtomicLong classes = new AtomicLong();
+    public final AtomicLong methods = new AtomicLong();
+    public final AtomicLong originalCodeBytes = new AtomicLong();
+    public final AtomicLong wovenCodeBytes = new AtomicLong();
+    public final AtomicLong pastMaxInlineSize = new AtomicLong();
+    public final AtomicLong pastFreqInlineSize = new AtomicLong();
+
+    @Override
+    public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module,
+                                 boolean loaded, DynamicType dynamicType) {
+        try {
+            byte[] original = Helpers.locateClassFile(typeDescription.getName(), classLoader);
+            if (original == null) {
+                return;
+            }
+
+            Map<String, Integer> before = codeSizes(original);
+            Map<String, Integer> after = codeSizes(dynamicType.getBytes());
+
+            int changed = 0;
+            long beforeBytes = 0;
+            long afterBytes = 0;
+            int pastMax = 0;
+            int pastFreq = 0;
+            for (Map.Entry<String, Integer> entry : after.entrySet()) {
+                Integer oldSize = before.get(entry.getKey());
+                int newSize = entry.getValue();
+                if (oldSize == null || oldSize == newSize) {
+                    continue;
+                }
+                changed++;
+                beforeBytes += oldSize;
+                afterBytes += newSize;
+                if (oldSize <= MAX_INLINE_SIZE && newSize > MAX_INLINE_SIZE) {
+                    pastMax++;
+                }
+                if (oldSize <= FREQ_INLINE_SIZE && newSize > FREQ_INLINE_SIZE) {
+                    pastFreq++;
+                }
+            }
+
+            classes.incrementAndGet();
+            methods.addAndGet(changed);
+            originalCodeBytes.addAndGet(beforeBytes);
+            wovenCodeBytes.addAndGet(afterBytes);
+            pastMaxInlineSize.addAndGet(pastMax);
+            pastFreqInlineSize.addAndGet(pastFreq);
+
+            System.out.println("[MethodLoggerAgent] Bytecode: " + typeDescription.getName()
+                    + " class file " + original.length + " -> " + dynamicType.getBytes().length + " bytes"
+                    + ", " + changed + " methods, code " + beforeBytes + " -> " + afterBytes + " bytes"
+                    + (changed > 0 ? " (+" + (afterBytes - beforeBytes) / changed + "/method)" : "")
+                    + ", " + pastMax + " past MaxInlineSize, " + pastFreq + " past FreqInlineSize");
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[MethodLoggerAgent] WARNING: Bytecode report failed for " + typeDescription.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the totals over all transformed classes.
+     */
+    public void printSummary() {
+        long count = methods.get();
+        System.out.println("[MethodLoggerAgent] Bytecode summary: " + classes.get() + " classes, " + count + " methods"
+                + ", code " + originalCodeBytes.get() + " -> " + wovenCodeBytes.get() + " bytes"
+                + (count > 0 ? " (+" + (wovenCodeBytes.get() - originalCodeBytes.get()) / count + "/method)" : "")
+                + ", " + pastMaxInlineSize.get() + " pushed past MaxInlineSize (" + MAX_INLINE_SIZE + ")"
+                + ", " + pastFreqInlineSize.get() + " pushed past FreqInlineSize (" + FREQ_INLINE_SIZE + ")");
+    }
+
+    /**
+     * Reads the bytecode length (code_length of the Code attribute) of every method in a class file.
+     * ASM does not report it directly, so each method is written again with the class file's own constant pool,
+     * which keeps the instruction encodings, and the length is the offset of a label placed after the last instruction.
+     *
+     * @param classFile The class file.
+     * @return Method name + descriptor to code length; abstract and native methods are omitted.
+     */
+    public static Map<String, Integer> codeSizes(byte[] classFile) {
+        Map<String, Integer> sizes = new HashMap<>();
+        ClassReader reader = new ClassReader(classFile);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, new ClassWriter(reader, 0)) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                    @Override
+                    public void visitMaxs(int maxStack, int maxLocals) {
+                        Label end = new Label();
+                        super.visitLabel(end);
+                        sizes.put(name + descriptor, end.getOffset());
+                        super.visitMaxs(maxStack, maxLocals);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return sizes;
+    }
+}
@@ -0,0 +1,79 @@
+package com.datmt.agent;
+
+import java.util.Arrays;
+
+/**
+ * A finished method call as recorded by the advice.
+ * It only carries the method ID; names are looked up in {@link MethodRegistry} when the event is serialized.
+ */
+public class CallEvent {
+    public long callId;
+    public long parentCallId;
+    public int methodId;
+    public int depth;
+    public int truncatedCalls; // nested calls not recorded because of the depth cap
+    public long threadId;
+    public String threadName;
+    public long endNanos; // System.nanoTime() at exit; formatted as "time" by the writer
+    public String callers;
+    public boolean callersSampled = true; // false if callers were reused from an earlier call (callerSampling)
+    public int callSite; // CallSiteRegistry ID of the invoke this call came from (callSites=true)
+
+    // With callers=SHADOW: registry IDs of the instrumented callers, nearest first; only the first
+    // callerCount entries are valid (the array is reused). When callerCount is 0, callers is used instead
+    public int[] callerIds;
+    public int callerCount;
+    public boolean callersIndirect; // uninstrumented code ran between callerIds[0] and this call (callerFallback=false)
+
+    // TypeNames ID of the runtime type of each captured argument, in the order of
+    // MethodMetadata.capturedArgs; only the first argCount entries are valid (the array is reused)
+    public int[] argTypes;
+    public int argCount;
+
+    // TypeNames ID of the returned value's runtime type, or of the exception if thrown is true
+    public int returnType;
+    public boolean thrown;
+
+    // Durations with the advice overhead of the instrumented descendants subtracted
+    public long durationNanos;
+    public long selfNanos; // durationNanos minus the children's durations; -1 if unknown (mode=TIMING)
+
+    // Durations as measured
+    public long rawDurationNanos;
+    public long rawSelfNanos;
+
+    /**
+     * Copies all fields of another event, including the valid part of its reused arrays.
+     *
+     * @param other The event to copy.
+     */
+    public void copyFrom(CallEvent other) {
+        callId = other.callId;
+        parentCallId = other.parentCallId;
+        methodId = other.methodId;
+        depth = other.depth;
+        truncatedCalls = other.truncatedCalls;
+        threadId = other.threadId;
+        threadName = other.threadName;
+        endNanos = other.endNanos;
+        callers = other.callers;
+        callersSampled = other.callersSampled;
+        callSite = other.callSite;
+        callersIndirect = other.callersIndirect;
+
+        // The other event may be refilled by its thread meanwhile (EventRing.snapshot discards such copies),
+        // so a count may not match its array yet; never copy past the array
+        int[] otherCallerIds = other.callerIds;
+        callerCount = otherCallerIds != null ? Math.min(other.callerCount, otherCallerIds.length) : 0;
+        callerIds = callerCount > 0 ? Arrays.copyOf(otherCallerIds, callerCount) : null;
+        int[] otherArgTypes = other.argTypes;
+        argCount = otherArgTypes != null ? Math.min(other.argCount, otherArgTypes.length) : 0;
+        argTypes = argCount > 0 ? Arrays.copyOf(otherArgTypes, argCount) : null;
+        returnType = other.returnType;
+        thrown = other.thrown;
+        durationNanos = other.durationNanos;
+        selfNanos = other.selfNanos;
+        rawDurationNanos = other.rawDurationNanos;
+        rawSelfNanos = other.rawSelfNanos;
+    }
+}
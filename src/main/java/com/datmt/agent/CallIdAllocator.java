@@ -0,0 +1,45 @@
+package com.datmt.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out primitive call IDs from per-thread blocks.
+ * A thread only touches the shared counter once every {@link #BLOCK_SIZE} calls,
+ * so allocating an ID is a plain field increment on the hot path.
+ * IDs start at 1; 0 means "no call" (e.g., no parent).
+ */
+public class CallIdAllocator {
+
+    // Number of IDs reserved by a thread at a time
+    public static final int BLOCK_SIZE = 4096;
+
+    // First ID of the next unreserved block
+    public static final AtomicLong nextBlockStart = new AtomicLong(1);
+
+    // Next ID to hand out and end (exclusive) of the current block
+    public long next;
+    public long limit;
+
+    /**
+     * Returns the next call ID of this thread, reserving a new block when the current one is used up.
+     *
+     * @return A call ID, unique across threads.
+     */
+    public long nextId() {
+        if (next == limit) {
+            next = nextBlockStart.getAndAdd(BLOCK_SIZE);
+            limit = next + BLOCK_SIZE;
+        }
+        return next++;
+    }
+
+    /**
+     * Renders a call ID the way it appears in the JSONL and HTML output.
+     *
+     * @param callId The call ID.
+     * @return The string form, or null for 0 (no call).
+     */
+    public static String format(long callId) {
+        return callId == 0 ? null : "CALL-" + callId;
+    }
+}
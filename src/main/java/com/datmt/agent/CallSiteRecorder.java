@@ -0,0 +1,88 @@
+package com.datmt.agent;
+
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.pool.TypePool;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rewrites the invoke instructions of an instrumented method so that each one first calls
+ * {@link CallSiteRegistry#enter(int)} with the ID of its call site.
+ * Only invokes whose owner matches the instrumented types are rewritten: calls into the JDK, libraries
+ * and the agent itself (the woven advice) never reach an enter advice and are left alone.
+ */
+public class CallSiteRecorder implements AsmVisitorWrapper.ForDeclaredMethods.MethodVisitorWrapper {
+
+    private static final String REGISTRY = CallSiteRegistry.class.getName().replace('.', '/');
+
+    // Matcher of the instrumented types, applied to the owner of each invoke by name
+    private final ElementMatcher<? super TypeDescription> typeMatcher;
+
+    // Internal name of each owner seen so far to whether it matches typeMatcher
+    private final Map<String, Boolean> instrumentedOwners = new ConcurrentHashMap<>();
+
+    /**
+     * @param typeMatcher The matcher that selects the instrumented types; it must only look at the type name.
+     */
+    public CallSiteRecorder(ElementMatcher<? super TypeDescription> typeMatcher) {
+        this.typeMatcher = typeMatcher;
+    }
+
+    /**
+     * Checks whether an invoke's owner is an instrumented type.
+     *
+     * @param owner The internal name of the owner, e.g. "com/example/Service".
+     * @return Whether calls on the owner may reach an enter advice.
+     */
+    public boolean isInstrumented(String owner) {
+        return instrumentedOwners.computeIfAbsent(owner, name -> !name.startsWith("[")
+                && typeMatcher.matches(new TypeDescription.Latent(name.replace('/', '.'), Opcodes.ACC_PUBLIC,
+                TypeDescription.Generic.OBJECT)));
+    }
+
+    @Override
+    public MethodVisitor wrap(TypeDescription instrumentedType, MethodDescription instrumentedMethod,
+                              MethodVisitor methodVisitor, Implementation.Context implementationContext,
+                              TypePool typePool, int writerFlags, int readerFlags) {
+        String caller = instrumentedType.getName() + "." + instrumentedMethod.getName();
+        String keyPrefix = instrumentedType.getName() + "#" + instrumentedMethod.getInternalName() + instrumentedMethod.getDescriptor() + "@";
+
+        return new MethodVisitor(Opcodes.ASM9, methodVisitor) {
+            private int line = -1;
+            private int index = 0; // ordinal of the invoke instruction in the method
+
+            @Override
+            public void visitLineNumber(int line, Label start) {
+                this.line = line;
+                super.visitLineNumber(line, start);
+            }
+
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                // Counted for every invoke, so the keys stay stable whatever the matcher decides
+                int ordinal = index++;
+                if (isInstrumented(owner)) {
+                    int id = CallSiteRegistry.register(keyPrefix + ordinal, caller + ":" + line,
+                            owner.replace('/', '.'), name + descriptor);
+                    super.visitLdcInsn(id);
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, REGISTRY, "enter", "(I)V", false);
+                }
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+
+            @Override
+            public void visitMaxs(int maxStack, int maxLocals) {
+                // The call site ID is pushed on top of the invoke's operands
+                super.visitMaxs(maxStack + 1, maxLocals);
+            }
+        };
+    }
+}
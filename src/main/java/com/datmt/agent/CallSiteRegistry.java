@@ -0,0 +1,175 @@
+package com.datmt.agent;
+
+import net.bytebuddy.description.type.TypeDefinition;
+import net.bytebuddy.description.type.TypeDescription;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the call sites (invoke instructions) of the instrumented classes, enabled with "callSites=true".
+ * Every call site gets a dense int ID at transform time; the rewritten code stores it in the thread's
+ * call site slot right before the invoke, and the callee's enter advice moves it onto its shadow stack frame.
+ * The "Class.method:line" string of each call site is built once, when the site is registered, and written
+ * once to the JSONL file as a "callSite" record the first time a call from it is written.
+ */
+public class CallSiteRegistry {
+
+    // ID stored in the slot when no call site is known
+    public static final int NONE = 0;
+
+    public static boolean enabled = false;
+
+    // Call site key (type name + method name + descriptor + instruction index) to its ID, so retransformations reuse the same ID
+    public static final Map<String, Integer> idsByKey = new ConcurrentHashMap<>();
+
+    // Location ("Class.method:line"), invoked type (the owner named by the invoke) and invoked method name
+    // and descriptor of each call site, indexed by ID. A new slot is written under the class lock, into copies
+    // when the arrays grow, and published by the volatile writes of the arrays and size that follow
+    public static volatile String[] locations = new String[1024];
+    public static volatile String[] targetOwners = new String[1024];
+    public static volatile String[] targets = new String[1024];
+
+    // Type name to the names of the type and all its supertypes, shared by the methods of a type
+    public static final Map<String, String[]> ownersByType = new ConcurrentHashMap<>();
+
+    // Number of registered call sites, including NONE
+    public static volatile int size = 1;
+
+    // Call sites whose dictionary record is in the JSONL file; guarded by the file lock
+    private static final BitSet written = new BitSet();
+
+    /**
+     * Called by the rewritten code right before an invoke instruction.
+     *
+     * @param callSiteId The ID of the call site.
+     */
+    public static void enter(int callSiteId) {
+        ThreadState.current().callSite = callSiteId;
+    }
+
+    /**
+     * Registers a call site (if not registered yet) and returns its ID.
+     *
+     * @param key        A key that is unique and stable across retransformations.
+     * @param location   The caller method and line, e.g. "com.example.Service.handle:42".
+     * @param owner      The fully-qualified name of the type named by the invoke.
+     * @param target     The name and descriptor of the invoked method, e.g. "handle(Ljava/lang/String;)V".
+     * @return The call site ID.
+     */
+    public static int register(String key, String location, String owner, String target) {
+        Integer existing = idsByKey.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (CallSiteRegistry.class) {
+            existing = idsByKey.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            int id = size;
+            String[] currentLocations = locations;
+            String[] currentOwners = targetOwners;
+            String[] currentTargets = targets;
+            if (id >= currentLocations.length) {
+                currentLocations = Arrays.copyOf(currentLocations, currentLocations.length * 2);
+                currentOwners = Arrays.copyOf(currentOwners, currentOwners.length * 2);
+                currentTargets = Arrays.copyOf(currentTargets, currentTargets.length * 2);
+            }
+            currentLocations[id] = location;
+            currentOwners[id] = owner;
+            currentTargets[id] = target;
+            locations = currentLocations;
+            targetOwners = currentOwners;
+            targets = currentTargets;
+            size = id + 1;
+            idsByKey.put(key, id);
+            return id;
+        }
+    }
+
+    /**
+     * Builds the dictionary record of a call site the first time it is written; calls only carry the ID.
+     * Must only be called while holding the JSONL file lock ({@link MethodLoggingAdvice#writeLog}).
+     *
+     * @param callSiteId The call site ID of a written call.
+     * @return The "callSite" record mapping the ID to its location, or null if already written or unknown.
+     */
+    public static Map<String, Object> dictionaryEntry(int callSiteId) {
+        String[] currentLocations = locations;
+        if (callSiteId <= NONE || callSiteId >= currentLocations.length || currentLocations[callSiteId] == null
+                || written.get(callSiteId)) {
+            return null;
+        }
+        written.set(callSiteId);
+
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("type", "callSite");
+        entry.put("id", callSiteId);
+        entry.put("location", currentLocations[callSiteId]);
+        String target = targets[callSiteId];
+        entry.put("target", targetOwners[callSiteId] + "." + target.substring(0, target.indexOf('(')));
+        return entry;
+    }
+
+    /**
+     * Checks whether a call came straight from the invoke instruction recorded on entry, that is,
+     * whether its caller's frame is the instrumented method that owns the call site. The invoke must name
+     * the called method (name and descriptor) on its declaring type or one of its supertypes.
+     *
+     * @param callSiteId The call site ID recorded on entry.
+     * @param callee     The metadata of the called method.
+     * @return False if the call went through uninstrumented code or its call site is unknown.
+     */
+    public static boolean isDirect(int callSiteId, MethodRegistry.MethodMetadata callee) {
+        String[] currentTargets = targets;
+        String[] currentOwners = targetOwners;
+        if (callSiteId <= NONE || callSiteId >= currentTargets.length || callee.owners == null
+                || !callee.invokedAs.equals(currentTargets[callSiteId])) {
+            return false;
+        }
+        String owner = currentOwners[callSiteId];
+        for (String calleeOwner : callee.owners) {
+            if (calleeOwner.equals(owner)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the names of a type and of all its superclasses and interfaces, i.e. the owners an invoke
+     * of one of its methods can name. Supertypes that cannot be resolved are left out.
+     *
+     * @param type The declaring type of an instrumented method.
+     * @return The fully-qualified type names.
+     */
+    public static String[] ownersOf(TypeDescription type) {
+        return ownersByType.computeIfAbsent(type.getName(), name -> {
+            Set<String> owners = new LinkedHashSet<>();
+            collectOwners(type, owners);
+            return owners.toArray(new String[0]);
+        });
+    }
+
+    private static void collectOwners(TypeDefinition type, Set<String> owners) {
+        if (type == null || !owners.add(type.asErasure().getName())) {
+            return;
+        }
+        try {
+            collectOwners(type.getSuperClass(), owners);
+            for (TypeDefinition anInterface : type.getInterfaces()) {
+                collectOwners(anInterface, owners);
+            }
+        } catch (RuntimeException e) {
+            // Unresolvable supertype (missing from the class path); calls naming it are reported as indirect
+        }
+    }
+}
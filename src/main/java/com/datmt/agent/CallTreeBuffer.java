@@ -0,0 +1,94 @@
+package com.datmt.agent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-thread buffer of the finished calls of the root call in progress, used for tail-based capture
+ * ("tailThresholdNanos"). When the root exits, its whole tree is kept only if the root was slow
+ * or any call in it threw; otherwise the buffer is simply reset, and nothing is serialized.
+ * Kept events are moved into the thread's {@link EventBuffer} by swapping event objects, not by copying.
+ */
+public class CallTreeBuffer {
+
+    public static final int INITIAL_CAPACITY = 64;
+
+    // Largest tree buffered per root; further calls of the tree are dropped and counted
+    public static final int MAX_EVENTS = 16384;
+
+    public static boolean enabled = false;
+
+    // Roots at least this slow are kept with their tree
+    public static long thresholdNanos = 0;
+
+    // Calls dropped because their tree was larger than MAX_EVENTS
+    public static final AtomicLong overflowEvents = new AtomicLong(0);
+
+    public CallEvent[] events = new CallEvent[INITIAL_CAPACITY];
+
+    // Number of finished calls of the current tree
+    public int size = 0;
+
+    // Whether any call of the current tree threw
+    public boolean failed = false;
+
+    public CallTreeBuffer() {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new CallEvent();
+        }
+    }
+
+    /**
+     * Gets the slot for the next finished call of the tree. Past {@link #MAX_EVENTS}, the last slot is
+     * returned and overwritten, so the root (which finishes last) always has a slot.
+     *
+     * @return The event to fill.
+     */
+    public CallEvent next() {
+        if (size == events.length && size < MAX_EVENTS) {
+            grow();
+        }
+        return events[Math.min(size, events.length - 1)];
+    }
+
+    /**
+     * Commits the event returned by {@link #next}.
+     */
+    public void commit() {
+        CallEvent event = events[Math.min(size, events.length - 1)];
+        if (event.thrown) {
+            failed = true;
+        }
+        if (size < events.length) {
+            size++;
+        } else {
+            overflowEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Decides whether the finished tree is kept, based on its root (the last committed event).
+     *
+     * @return Whether the tree should be written.
+     */
+    public boolean keep() {
+        return failed || events[size - 1].durationNanos >= thresholdNanos;
+    }
+
+    /**
+     * Forgets the current tree.
+     */
+    public void reset() {
+        size = 0;
+        failed = false;
+    }
+
+    private void grow() {
+        int capacity = Math.min(events.length * 2, MAX_EVENTS);
+        int oldCapacity = events.length;
+        events = Arrays.copyOf(events, capacity);
+        for (int i = oldCapacity; i < capacity; i++) {
+            events[i] = new CallEvent();
+        }
+    }
+}
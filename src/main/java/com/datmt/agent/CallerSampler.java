@@ -0,0 +1,91 @@
+package com.datmt.agent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-method sampling of the caller stack walk, enabled with "callerSampling=N/M".
+ * The callers of the first N calls of each method are resolved, then those of every M-th call;
+ * the calls in between reuse the last resolved callers of the method.
+ * Resolved caller strings are deduplicated in a small per-method cache, so events of a hot method
+ * all reference the same few strings.
+ */
+public class CallerSampler {
+
+    // Maximum number of distinct caller strings cached per method; further ones are used but not cached
+    public static final int MAX_CACHED_CALLERS = 32;
+
+    public static boolean enabled = false;
+    public static long sampleFirst = 0;
+    public static long sampleEvery = 1;
+
+    /**
+     * Caller samples of one method.
+     * The counters are updated without synchronization: a lost update only shifts the sampling slightly.
+     */
+    public static class MethodCallers {
+        public long calls;
+        public String last;
+        public final Map<String, String> cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Parses the "callerSampling" option.
+     *
+     * @param spec "N/M": resolve the callers of the first N calls of a method, then of 1 in M; null disables sampling.
+     */
+    public static void init(String spec) {
+        enabled = false;
+        if (spec == null || spec.isEmpty()) {
+            return;
+        }
+
+        int slash = spec.indexOf('/');
+        long first = Helpers.fromString(slash < 0 ? spec : spec.substring(0, slash), -1);
+        long every = slash < 0 ? -1 : Helpers.fromString(spec.substring(slash + 1), -1);
+        if (first < 0 || every < 1) {
+            System.err.println("[MethodLoggerAgent] WARNING: Invalid callerSampling '" + spec + "', expected N/M");
+            return;
+        }
+
+        sampleFirst = first;
+        sampleEvery = every;
+        enabled = true;
+    }
+
+    /**
+     * Gets the callers of a call, resolving them only if the call is sampled.
+     *
+     * @param event       The (reused) event; its callersSampled flag is set.
+     * @param methodId    The registry ID of the called method.
+     * @param callerDepth The number of callers to collect.
+     * @return The (cached) callers string.
+     */
+    public static String callers(CallEvent event, int methodId, int callerDepth) {
+        MethodRegistry.MethodMetadata metadata = MethodRegistry.get(methodId);
+        if (metadata == null || metadata.callerSamples == null) {
+            event.callersSampled = true;
+            return MethodLoggingAdvice.getCallerMethods(callerDepth);
+        }
+
+        MethodCallers samples = metadata.callerSamples;
+        long n = samples.calls++;
+        String last = samples.last;
+        if (last != null && n >= sampleFirst && (n - sampleFirst) % sampleEvery != 0) {
+            event.callersSampled = false;
+            return last;
+        }
+
+        String callers = MethodLoggingAdvice.getCallerMethods(callerDepth);
+        String cached = samples.cache.get(callers);
+        if (cached == null) {
+            cached = callers;
+            if (samples.cache.size() < MAX_CACHED_CALLERS) {
+                samples.cache.putIfAbsent(callers, callers);
+            }
+        }
+        samples.last = cached;
+        event.callersSampled = true;
+        return cached;
+    }
+}
@@ -0,0 +1,16 @@
+package com.datmt.agent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an {@code Object[]} advice parameter that receives the arguments selected by {@link ArgumentCapture},
+ * in ascending parameter index order. When capture is off for the method, the woven code passes a null
+ * constant instead and never reads or boxes the arguments, see {@link CapturedArgumentsMapping}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface CapturedArguments {
+}
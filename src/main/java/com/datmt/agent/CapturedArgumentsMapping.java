@@ -0,0 +1,65 @@
+package com.datmt.agent;
+
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.ParameterDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.StackManipulation;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.collection.ArrayFactory;
+import net.bytebuddy.implementation.bytecode.constant.NullConstant;
+import net.bytebuddy.implementation.bytecode.member.MethodVariableAccess;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds {@link CapturedArguments} parameters of the advice to an array of the selected arguments,
+ * or to a null constant when the method captures no arguments.
+ * Must be registered with {@code Advice.withCustomMapping().bind(CapturedArgumentsMapping.INSTANCE)}.
+ */
+public class CapturedArgumentsMapping implements Advice.OffsetMapping, Advice.OffsetMapping.Factory<CapturedArguments> {
+
+    public static final CapturedArgumentsMapping INSTANCE = new CapturedArgumentsMapping();
+
+    @Override
+    public Class<CapturedArguments> getAnnotationType() {
+        return CapturedArguments.class;
+    }
+
+    @Override
+    public Advice.OffsetMapping make(ParameterDescription.InDefinedShape target,
+                                     AnnotationDescription.Loadable<CapturedArguments> annotation,
+                                     AdviceType adviceType) {
+        if (!target.getType().asErasure().represents(Object[].class)) {
+            throw new IllegalStateException("@CapturedArguments must be used on an Object[] parameter: " + target);
+        }
+        return this;
+    }
+
+    @Override
+    public Target resolve(TypeDescription instrumentedType,
+                          MethodDescription instrumentedMethod,
+                          Assigner assigner,
+                          Advice.ArgumentHandler argumentHandler,
+                          Sort sort) {
+        int methodId = MethodRegistry.register(instrumentedType, instrumentedMethod);
+        int[] indices = MethodRegistry.get(methodId).capturedArgs;
+        if (indices.length == 0) {
+            return new Target.ForStackManipulation(NullConstant.INSTANCE);
+        }
+
+        // Load and box only the selected arguments into a new Object[]
+        TypeDescription.Generic objectType = TypeDescription.Generic.OfNonGenericType.ForLoadedType.of(Object.class);
+        List<StackManipulation> values = new ArrayList<>();
+        for (int index : indices) {
+            ParameterDescription parameter = instrumentedMethod.getParameters().get(index);
+            values.add(new StackManipulation.Compound(
+                    MethodVariableAccess.of(parameter.getType()).loadFrom(argumentHandler.argument(parameter.getOffset())),
+                    assigner.assign(parameter.getType(), objectType, Assigner.Typing.DYNAMIC)
+            ));
+        }
+        return new Target.ForStackManipulation(ArrayFactory.forType(objectType).withValues(values));
+    }
+}
@@ -0,0 +1,158 @@
+package com.datmt.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Startup detail window, enabled with "detailSeconds" and/or "detailEvents": every call is recorded
+ * for the first seconds after the agent starts or until that many calls were recorded, whichever comes first.
+ * Then the writer flips {@link #aggregateOnly} and the exit advice only adds each call to per-method totals,
+ * written as "aggregate" records every 10 seconds and at shutdown. No retransformation is needed;
+ * the switch itself is written as a "mode" record.
+ */
+public class DetailWindow {
+
+    // How often the per-method totals are written
+    public static final long AGGREGATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public static boolean enabled = false;
+
+    // Set once by the writer when the window ends; read by the exit advice
+    public static volatile boolean aggregateOnly = false;
+
+    // Limits of the window (Long.MAX_VALUE if not set)
+    public static long detailNanos = Long.MAX_VALUE;
+    public static long detailEvents = Long.MAX_VALUE;
+
+    // Start of the period covered by the next aggregate records
+    public static long aggregateStartNanos;
+
+    /**
+     * Per-method totals after the window.
+     */
+    public static class MethodTotals {
+        public final AtomicLong calls = new AtomicLong();
+        public final AtomicLong durationNanos = new AtomicLong();
+        public final AtomicLong selfNanos = new AtomicLong();
+
+        // Whether any call had a known self time (not in mode=TIMING)
+        public volatile boolean selfKnown;
+    }
+
+    /**
+     * Initializes the window from the agent options.
+     *
+     * @param seconds Length of the window in seconds, or 0 if not limited by time.
+     * @param events  Number of calls recorded in the window, or 0 if not limited by count.
+     */
+    public static void init(long seconds, long events) {
+        enabled = seconds > 0 || events > 0;
+        detailNanos = seconds > 0 ? TimeUnit.SECONDS.toNanos(seconds) : Long.MAX_VALUE;
+        detailEvents = events > 0 ? events : Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds a call to its method's totals.
+     *
+     * @param methodId      The registry ID of the method.
+     * @param durationNanos The (compensated) duration of the call.
+     * @param selfNanos     The (compensated) self time of the call, or -1 if unknown.
+     */
+    public static void aggregate(int methodId, long durationNanos, long selfNanos) {
+        MethodRegistry.MethodMetadata metadata = MethodRegistry.get(methodId);
+        if (metadata == null || metadata.totals == null) {
+            return;
+        }
+
+        MethodTotals totals = metadata.totals;
+        totals.calls.incrementAndGet();
+        totals.durationNanos.addAndGet(durationNanos);
+        if (selfNanos >= 0) {
+            totals.selfNanos.addAndGet(selfNanos);
+            if (!totals.selfKnown) {
+                totals.selfKnown = true;
+            }
+        }
+    }
+
+    /**
+     * Ends the window once its time or event limit is reached. Called periodically by the writer thread.
+     *
+     * @param nowNanos        The current System.nanoTime().
+     * @param committedEvents The number of calls recorded so far.
+     */
+    public static void checkSwitch(long nowNanos, long committedEvents) {
+        String reason;
+        if (nowNanos - Timestamps.ANCHOR_NANO_TIME >= detailNanos) {
+            reason = "detailSeconds";
+        } else if (committedEvents >= detailEvents) {
+            reason = "detailEvents";
+        } else {
+            return;
+        }
+
+        aggregateStartNanos = nowNanos;
+        aggregateOnly = true;
+
+        // The detail events come before the switch in the output, not at shutdown
+        EventWriter.flushAll();
+        System.out.println("[MethodLoggerAgent] Detail window ended (" + reason + "), recording per-method aggregates only");
+
+        if (MethodLoggingAdvice.LOG_FILE != null) {
+            Map<String, Object> record = new HashMap<>();
+            record.put("type", "mode");
+            record.put("mode", "aggregate");
+            record.put("reason", reason);
+            record.put("time", Timestamps.format(nowNanos));
+            record.put("recordedCalls", committedEvents);
+            List<Map<String, Object>> records = new ArrayList<>();
+            records.add(record);
+            MethodLoggingAdvice.writeLog(records);
+        }
+    }
+
+    /**
+     * Writes the per-method totals accumulated since the last call to the JSONL file, and resets them.
+     */
+    public static void writeAggregates() {
+        long nowNanos = System.nanoTime();
+        List<Map<String, Object>> aggregates = new ArrayList<>();
+        int size = MethodRegistry.size;
+        for (int id = 0; id < size; id++) {
+            MethodRegistry.MethodMetadata metadata = MethodRegistry.get(id);
+            if (metadata == null || metadata.totals == null) {
+                continue;
+            }
+
+            MethodTotals totals = metadata.totals;
+            long calls = totals.calls.getAndSet(0);
+            if (calls == 0) {
+                continue;
+            }
+
+            Map<String, Object> aggregate = new HashMap<>();
+            aggregate.put("type", "aggregate");
+            aggregate.put("package", metadata.packageName);
+            aggregate.put("class", metadata.className);
+            aggregate.put("method", metadata.methodName);
+            aggregate.put("from", Timestamps.format(aggregateStartNanos));
+            aggregate.put("time", Timestamps.format(nowNanos));
+            aggregate.put("calls", calls);
+            aggregate.put("durationNanos", totals.durationNanos.getAndSet(0));
+            long selfNanos = totals.selfNanos.getAndSet(0);
+            if (totals.selfKnown) {
+                aggregate.put("selfNanos", selfNanos);
+            }
+            aggregates.add(aggregate);
+        }
+        aggregateStartNanos = nowNanos;
+
+        if (!aggregates.isEmpty() && MethodLoggingAdvice.LOG_FILE != null) {
+            MethodLoggingAdvice.writeLog(aggregates);
+        }
+    }
+}
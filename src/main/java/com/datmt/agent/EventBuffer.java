@@ -0,0 +1,77 @@
+package com.datmt.agent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A fixed-size batch of finished calls, filled by one application thread and serialized by the writer.
+ * The events are allocated once and reused every time the buffer is recycled.
+ * <p>
+ * The owning thread publishes the number of committed events with a release store, so the writer can
+ * serialize the committed prefix of a buffer that is still being filled (see {@link EventWriter#flushIdle(long)});
+ * committed events are never modified until the buffer is recycled.
+ */
+public class EventBuffer {
+
+    public static final int CAPACITY = 256;
+
+    private static final VarHandle SIZE;
+
+    static {
+        try {
+            SIZE = MethodHandles.lookup().findVarHandle(EventBuffer.class, "size", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public final CallEvent[] events = new CallEvent[CAPACITY];
+
+    // Number of committed events; written by the owning thread through commit()
+    public int size = 0;
+
+    // Number of events already serialized by the writer (only used by the writer thread)
+    public int flushed = 0;
+
+    // System.nanoTime() at the end of the first committed event
+    public long firstNanos;
+
+    public EventBuffer() {
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new CallEvent();
+        }
+    }
+
+    /**
+     * Commits the next event (the one at index size), publishing it to the writer.
+     * Only called by the owning thread.
+     *
+     * @param endNanos The System.nanoTime() at the end of the call.
+     * @return Whether the buffer is full.
+     */
+    public boolean commit(long endNanos) {
+        int committed = size + 1;
+        if (committed == 1) {
+            firstNanos = endNanos;
+        }
+        SIZE.setRelease(this, committed);
+        return committed == events.length;
+    }
+
+    /**
+     * Reads the number of committed events from another thread.
+     *
+     * @return The number of committed events; they are fully visible to the caller.
+     */
+    public int committedSize() {
+        return (int) SIZE.getAcquire(this);
+    }
+
+    /**
+     * Empties the buffer for reuse. Only called by the writer before recycling the buffer.
+     */
+    public void clear() {
+        size = 0;
+        flushed = 0;
+    }
+}
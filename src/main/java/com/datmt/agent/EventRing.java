@@ -0,0 +1,91 @@
+package com.datmt.agent;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Per-thread ring of the last finished calls, used in flight recorder mode ("flightRecorder=N").
+ * The events are allocated once; recording a call overwrites the oldest one, so the steady-state cost
+ * is filling the event and one counter store, with no hand-off to the writer.
+ * Another thread can take a consistent snapshot with {@link #snapshot}: like a seqlock, it re-reads the
+ * counter after copying and drops the events that may have been overwritten meanwhile.
+ */
+public class EventRing {
+
+    public final CallEvent[] events;
+
+    // Number of events committed so far; event n lives in slot n % events.length.
+    // Volatile so a dumping thread sees the committed events
+    public volatile long committed = 0;
+
+    // Number of events already returned by earlier snapshots, so repeated dumps do not write them again;
+    // only used by the dumping thread (FlightRecorder lock)
+    public long dumped = 0;
+
+    public EventRing(int capacity) {
+        events = new CallEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new CallEvent();
+        }
+    }
+
+    /**
+     * Gets the slot for the next finished call (the oldest event).
+     *
+     * @return The event to fill.
+     */
+    public CallEvent next() {
+        return events[(int) (committed % events.length)];
+    }
+
+    /**
+     * Commits the event returned by {@link #next}. Only called by the owning thread.
+     */
+    public void commit() {
+        committed = committed + 1;
+        // The stores that fill the next slot must not become visible before the new count
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Copies the events committed since the previous snapshot, oldest first. The owning thread keeps
+     * recording meanwhile, so events that may have been overwritten during the copy are left out.
+     *
+     * @return Copies of the events.
+     */
+    public CallEvent[] snapshot() {
+        int capacity = events.length;
+        long end = committed;
+        long start = Math.max(dumped, end - capacity);
+        dumped = end;
+
+        CallEvent[] copies = new CallEvent[(int) (end - start)];
+        for (long n = start; n < end; n++) {
+            CallEvent copy = new CallEvent();
+            copy.copyFrom(events[(int) (n % capacity)]);
+            copies[(int) (n - start)] = copy;
+        }
+
+        // The slot reads above must not be reordered after the re-read of the counter
+        VarHandle.acquireFence();
+        int skip = (int) Math.min(copies.length, firstIntact(start, committed, capacity) - start);
+        if (skip == 0) {
+            return copies;
+        }
+        CallEvent[] intact = new CallEvent[copies.length - skip];
+        System.arraycopy(copies, skip, intact, 0, intact.length);
+        return intact;
+    }
+
+    /**
+     * Gets the first event of a copy that cannot have been overwritten while it was copied.
+     * Event n is overwritten once event n + capacity is being filled, i.e. once the counter reaches n + capacity.
+     *
+     * @param start     The first copied event.
+     * @param committed The counter read after the copy.
+     * @param capacity  The number of slots.
+     * @return The number of the first intact event; at least start.
+     */
+    public static long firstIntact(long start, long committed, int capacity) {
+        return Math.max(start, committed - capacity + 1);
+    }
+}
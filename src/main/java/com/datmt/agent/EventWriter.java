@@ -0,0 +1,302 @@
+package com.datmt.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer: serializes full {@link EventBuffer}s handed over by the application threads
+ * to the JSONL and HTML files, so no formatting or file I/O happens on the instrumented call path.
+ * Buffers are recycled through a free list. If the writer falls behind and the queue is full, the
+ * application thread waits for room, or with "dropWhenBehind=true" the batch is dropped and counted instead.
+ */
+public class EventWriter {
+
+    // How long a thread may hold finished root calls before handing them to the writer
+    public static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // How often the states of terminated threads are released
+    public static final long REAP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // Buffers waiting to be written
+    public static final ArrayBlockingQueue<EventBuffer> pending = new ArrayBlockingQueue<>(1024);
+
+    // Written buffers ready for reuse
+    public static final ConcurrentLinkedQueue<EventBuffer> free = new ConcurrentLinkedQueue<>();
+
+    // Drop batches instead of waiting when the queue is full (dropWhenBehind)
+    public static boolean dropWhenBehind = false;
+
+    // Events dropped because the writer fell behind
+    public static final AtomicLong droppedEvents = new AtomicLong(0);
+
+    // Held by the writer thread while it writes, so the shutdown hook never writes a buffer at the same time
+    private static final Object WRITE_LOCK = new Object();
+
+    // Calls committed by threads whose state was released (only updated by the writer thread)
+    public static long reapedCommittedEvents = 0;
+
+    public static volatile boolean running = false;
+
+    public static Thread writerThread;
+
+    /**
+     * Starts the writer thread and registers a shutdown hook that flushes all threads' buffers.
+     * This is called by the agent's premain method.
+     */
+    public static void start() {
+        running = true;
+
+        writerThread = new Thread(EventWriter::run, "method-logger-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(EventWriter::shutdown, "method-logger-shutdown"));
+    }
+
+    /**
+     * Takes an empty buffer from the free list, or allocates one.
+     *
+     * @return An empty buffer.
+     */
+    public static EventBuffer takeBuffer() {
+        EventBuffer buffer = free.poll();
+        return buffer != null ? buffer : new EventBuffer();
+    }
+
+    /**
+     * Hands a filled buffer to the writer.
+     *
+     * @param buffer The buffer; must not be used by the caller afterwards.
+     * @return An empty buffer to continue with.
+     */
+    public static EventBuffer submit(EventBuffer buffer) {
+        if (pending.offer(buffer) || (!dropWhenBehind && waitForRoom(buffer))) {
+            return takeBuffer();
+        }
+
+        // The writer may still be flushing the buffer's committed events, so it is abandoned, not reused
+        if (droppedEvents.getAndAdd(buffer.size - buffer.flushed) == 0) {
+            System.err.println("[MethodLoggerAgent] WARNING: The writer fell behind, dropping events");
+        }
+        return new EventBuffer();
+    }
+
+    // Waits until the writer has room for the buffer; gives up once the writer has stopped (shutdown)
+    private static boolean waitForRoom(EventBuffer buffer) {
+        try {
+            while (running) {
+                if (pending.offer(buffer, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static void run() {
+        long lastReap = System.nanoTime();
+        long lastSummary = lastReap;
+        long lastAggregate = lastReap;
+        while (true) {
+            // The shutdown hook takes the lock to write the rest, after which the writer stops
+            synchronized (WRITE_LOCK) {
+                if (!running) {
+                    return;
+                }
+                try {
+                    EventBuffer buffer = pending.poll(200, TimeUnit.MILLISECONDS);
+                    if (buffer != null) {
+                        write(buffer);
+                        buffer.clear();
+                        free.offer(buffer);
+                    }
+
+                    long now = System.nanoTime();
+                    flushIdle(now);
+                    if (now - lastReap >= REAP_INTERVAL_NANOS) {
+                        reapTerminatedThreads();
+                        lastReap = now;
+                    }
+                    if (DetailWindow.enabled) {
+                        if (!DetailWindow.aggregateOnly) {
+                            DetailWindow.checkSwitch(now, committedEvents());
+                            lastAggregate = now;
+                        } else if (now - lastAggregate >= DetailWindow.AGGREGATE_INTERVAL_NANOS) {
+                            DetailWindow.writeAggregates();
+                            lastAggregate = now;
+                        }
+                    }
+                    if (FlightRecorder.enabled) {
+                        FlightRecorder.checkTriggerFile();
+                    }
+                    if (RateLimiter.enabled && now - lastSummary >= RateLimiter.SUMMARY_INTERVAL_NANOS) {
+                        RateLimiter.writeSummaries();
+                        lastSummary = now;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    System.err.println("[MethodLoggerAgent] ERROR: Writer failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining events of threads that have terminated and releases their state,
+     * so pools that churn threads do not keep dead threads (and their stacks and buffers) reachable.
+     * A terminated thread can no longer touch its state, so its buffer can be read here.
+     */
+    public static void reapTerminatedThreads() {
+        for (ThreadState state : ThreadState.ALL) {
+            if (!state.thread.isAlive()) {
+                ThreadState.ALL.remove(state);
+                reapedCommittedEvents += state.committedEvents;
+                if (state.ring != null) {
+                    FlightRecorder.retire(state.ring);
+                }
+                EventBuffer buffer = state.buffer;
+                write(buffer);
+                buffer.clear();
+                free.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Counts the calls committed by all threads so far. The counts of live threads are read without
+     * synchronization, so the result may be slightly behind.
+     *
+     * @return The number of committed calls.
+     */
+    public static long committedEvents() {
+        long total = reapedCommittedEvents;
+        for (ThreadState state : ThreadState.ALL) {
+            total += state.committedEvents;
+        }
+        return total;
+    }
+
+    /**
+     * Writes everything committed so far: the pending buffers, then the committed events of every thread's buffer.
+     * Only called by the writer thread.
+     */
+    public static void flushAll() {
+        EventBuffer buffer;
+        while ((buffer = pending.poll()) != null) {
+            write(buffer);
+            buffer.clear();
+            free.offer(buffer);
+        }
+        for (ThreadState state : ThreadState.ALL) {
+            EventBuffer current = state.buffer;
+            write(current, current.committedSize());
+        }
+    }
+
+    /**
+     * Writes the committed events of threads that have held them for the flush interval without handing
+     * their buffer over, e.g. pooled workers that went idle, so the output does not lag behind indefinitely.
+     * The owning thread keeps filling the buffer meanwhile; only its published prefix is read.
+     *
+     * @param nowNanos The current System.nanoTime().
+     */
+    public static void flushIdle(long nowNanos) {
+        for (ThreadState state : ThreadState.ALL) {
+            EventBuffer buffer = state.buffer;
+            int committed = buffer.committedSize();
+            if (committed > buffer.flushed
+                    && nowNanos - buffer.events[buffer.flushed].endNanos >= FLUSH_INTERVAL_NANOS) {
+                write(buffer, committed);
+            }
+        }
+    }
+
+    /**
+     * Serializes the events of a buffer that have not been written yet to both the JSONL and HTML files.
+     *
+     * @param buffer The buffer to write; no longer filled by its thread.
+     */
+    public static void write(EventBuffer buffer) {
+        write(buffer, buffer.size);
+    }
+
+    /**
+     * Serializes the events of a buffer up to the given count that have not been written yet.
+     *
+     * @param buffer    The buffer to write.
+     * @param committed The number of committed events of the buffer.
+     */
+    public static void write(EventBuffer buffer, int committed) {
+        int from = buffer.flushed;
+        if (committed <= from) {
+            return;
+        }
+        buffer.flushed = committed;
+        if (MethodLoggingAdvice.LOG_FILE == null && MethodLoggingAdvice.HTML_FILE == null) {
+            return;
+        }
+
+        List<Map<String, Object>> logEntries = new ArrayList<>(committed - from);
+        for (int i = from; i < committed; i++) {
+            logEntries.add(MethodLoggingAdvice.toLogEntry(buffer.events[i]));
+        }
+
+        if (MethodLoggingAdvice.LOG_FILE != null) {
+            MethodLoggingAdvice.writeLog(logEntries);
+        }
+        if (MethodLoggingAdvice.HTML_FILE != null) {
+            MethodLoggingAdvice.writeHtmlLog(logEntries);
+        }
+    }
+
+    /**
+     * Stops the writer and writes everything still buffered, including the partially filled
+     * buffers of all threads. Runs in the JVM shutdown hook.
+     */
+    public static void shutdown() {
+        running = false;
+
+        // Waits for the writer to finish what it is writing; it stops when it next takes the lock
+        synchronized (WRITE_LOCK) {
+            writeRemaining();
+        }
+    }
+
+    private static void writeRemaining() {
+        for (ThreadState state : ThreadState.ALL) {
+            EventBuffer buffer = state.buffer;
+            write(buffer, buffer.committedSize());
+        }
+
+        EventBuffer buffer;
+        while ((buffer = pending.poll()) != null) {
+            write(buffer);
+        }
+
+        if (RateLimiter.enabled) {
+            RateLimiter.writeSummaries();
+        }
+        if (DetailWindow.aggregateOnly) {
+            DetailWindow.writeAggregates();
+        }
+
+        long overflow = CallTreeBuffer.overflowEvents.get();
+        if (overflow > 0) {
+            System.err.println("[MethodLoggerAgent] WARNING: " + overflow + " events were dropped from call trees larger than " + CallTreeBuffer.MAX_EVENTS + " calls");
+        }
+
+        long dropped = droppedEvents.get();
+        if (dropped > 0) {
+            System.err.println("[MethodLoggerAgent] WARNING: " + dropped + " events were dropped because the writer fell behind");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.datmt.agent;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flight recorder mode, enabled with "flightRecorder=N": every thread keeps its last N calls
+ * in an {@link EventRing} and nothing is written until a dump is triggered by
+ * <ul>
+ *     <li>the JMX operation "com.datmt.agent:type=FlightRecorder" dump(),</li>
+ *     <li>the file given by "flightRecorderTrigger" appearing (it is deleted after the dump), or</li>
+ *     <li>an uncaught exception in any thread.</li>
+ * </ul>
+ * A dump writes a "dump" record followed by the calls recorded since the previous dump, by all threads
+ * including those that terminated since then, to the usual outputs.
+ */
+public class FlightRecorder implements FlightRecorderMBean {
+
+    public static boolean enabled = false;
+    public static int eventsPerThread = 0;
+
+    // File whose appearance triggers a dump (null if not watched); checked by the writer thread
+    public static Path triggerFile;
+
+    // Most rings of terminated threads kept for the next dump; the oldest are dropped beyond this
+    public static final int MAX_RETIRED_RINGS = 256;
+
+    // Rings of terminated threads with calls not dumped yet; guarded by the class lock
+    private static final ArrayDeque<EventRing> retiredRings = new ArrayDeque<>();
+
+    /**
+     * Enables the flight recorder and installs its triggers. This is called by the agent's premain method.
+     *
+     * @param eventsPerThread The number of calls each thread keeps.
+     * @param trigger         The path of the trigger file, or null.
+     */
+    public static void init(int eventsPerThread, String trigger) {
+        FlightRecorder.eventsPerThread = eventsPerThread;
+        triggerFile = trigger != null ? Paths.get(trigger) : null;
+        enabled = true;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new FlightRecorder(), new ObjectName("com.datmt.agent:type=FlightRecorder"));
+        } catch (Exception e) {
+            System.err.println("[MethodLoggerAgent] WARNING: Could not register the flight recorder MBean: " + e.getMessage());
+        }
+
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
+            dumpAll("uncaught " + throwable.getClass().getName() + " in " + thread.getName());
+            if (previous != null) {
+                previous.uncaughtException(thread, throwable);
+            } else {
+                // Same output as the JVM's default handling
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                throwable.printStackTrace(System.err);
+            }
+        });
+    }
+
+    @Override
+    public int dump() {
+        return dumpAll("JMX");
+    }
+
+    @Override
+    public int getEventsPerThread() {
+        return eventsPerThread;
+    }
+
+    /**
+     * Keeps the ring of a terminated thread, whose state is being released, until the next dump.
+     *
+     * @param ring The ring of the thread.
+     */
+    public static synchronized void retire(EventRing ring) {
+        if (ring.committed == ring.dumped) {
+            return;
+        }
+        if (retiredRings.size() == MAX_RETIRED_RINGS) {
+            retiredRings.poll();
+        }
+        retiredRings.add(ring);
+    }
+
+    /**
+     * Dumps if the trigger file exists, and deletes it. Called periodically by the writer thread.
+     */
+    public static void checkTriggerFile() {
+        if (triggerFile != null && Files.exists(triggerFile)) {
+            dumpAll("trigger file " + triggerFile);
+            try {
+                Files.deleteIfExists(triggerFile);
+            } catch (Exception e) {
+                System.err.println("[MethodLoggerAgent] WARNING: Could not delete " + triggerFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes the calls of all threads recorded since the previous dump, oldest first per thread.
+     *
+     * @param reason What triggered the dump, written in the "dump" record.
+     * @return The number of calls written.
+     */
+    public static synchronized int dumpAll(String reason) {
+        if (MethodLoggingAdvice.LOG_FILE == null && MethodLoggingAdvice.HTML_FILE == null) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        List<Map<String, Object>> logEntries = new ArrayList<>();
+        EventRing retired;
+        while ((retired = retiredRings.poll()) != null) {
+            for (CallEvent event : retired.snapshot()) {
+                logEntries.add(MethodLoggingAdvice.toLogEntry(event));
+            }
+        }
+        for (ThreadState state : ThreadState.ALL) {
+            if (state.ring != null) {
+                for (CallEvent event : state.ring.snapshot()) {
+                    logEntries.add(MethodLoggingAdvice.toLogEntry(event));
+                }
+            }
+        }
+
+        if (MethodLoggingAdvice.LOG_FILE != null) {
+            Map<String, Object> marker = new HashMap<>();
+            marker.put("type", "dump");
+            marker.put("reason", reason);
+            marker.put("time", Timestamps.format(now));
+            marker.put("calls", logEntries.size());
+            List<Map<String, Object>> markerEntries = new ArrayList<>();
+            markerEntries.add(marker);
+            MethodLoggingAdvice.writeLog(markerEntries);
+            MethodLoggingAdvice.writeLog(logEntries);
+        }
+        if (MethodLoggingAdvice.HTML_FILE != null) {
+            MethodLoggingAdvice.writeHtmlLog(logEntries);
+        }
+
+        System.out.println("[MethodLoggerAgent] Flight recorder dump (" + reason + "): " + logEntries.size() + " calls");
+        return logEntries.size();
+    }
+}
@@ -0,0 +1,21 @@
+package com.datmt.agent;
+
+/**
+ * JMX interface of the flight recorder, registered as "com.datmt.agent:type=FlightRecorder".
+ */
+public interface FlightRecorderMBean {
+
+    /**
+     * Writes the recent calls of all threads to the JSONL and HTML outputs.
+     *
+     * @return The number of calls written.
+     */
+    int dump();
+
+    /**
+     * Gets the number of calls each thread keeps.
+     *
+     * @return The ring size per thread.
+     */
+    int getEventsPerThread();
+}
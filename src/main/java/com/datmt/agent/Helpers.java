@@ -1,5 +1,9 @@
 package com.datmt.agent;
 
+import net.bytebuddy.dynamic.ClassFileLocator;
+
+import java.io.IOException;
+
 public class Helpers {
     public static Integer fromString(String string, int defaultValue) {
        if (string == null || string.trim().isEmpty()) {
@@ -12,4 +16,43 @@ public class Helpers {
            return defaultValue;
        }
     }
+
+    public static Long fromString(String string, long defaultValue) {
+       if (string == null || string.trim().isEmpty()) {
+           return defaultValue;
+       }
+
+       try {
+           return Long.parseLong(string);
+       } catch (NumberFormatException e) {
+           return defaultValue;
+       }
+    }
+
+    public static Double fromString(String string, double defaultValue) {
+       if (string == null || string.trim().isEmpty()) {
+           return defaultValue;
+       }
+
+       try {
+           return Double.parseDouble(string);
+       } catch (NumberFormatException e) {
+           return defaultValue;
+       }
+    }
+
+    /**
+     * Reads the original class file of a type from its class loader.
+     *
+     * @param typeName    The binary name of the type.
+     * @param classLoader The class loader of the type, or null for the bootstrap loader.
+     * @return The class file, or null if it cannot be found.
+     */
+    public static byte[] locateClassFile(String typeName, ClassLoader classLoader) throws IOException {
+        ClassFileLocator locator = classLoader != null
+                ? ClassFileLocator.ForClassLoader.of(classLoader)
+                : ClassFileLocator.ForClassLoader.ofBootLoader();
+        ClassFileLocator.Resolution resolution = locator.locate(typeName);
+        return resolution.isResolved() ? resolution.resolve() : null;
+    }
 }
@@ -0,0 +1,15 @@
+package com.datmt.agent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an advice parameter that receives the {@link MethodRegistry} ID of the instrumented method.
+ * The ID is written into the woven code as an int constant, see {@link MethodIdMapping}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface MethodId {
+}
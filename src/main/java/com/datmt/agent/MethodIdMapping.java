@@ -0,0 +1,43 @@
+package com.datmt.agent;
+
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.ParameterDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+
+/**
+ * Binds {@link MethodId} parameters of the advice to the ID of the instrumented method.
+ * Must be registered with {@code Advice.withCustomMapping().bind(MethodIdMapping.INSTANCE)}.
+ */
+public class MethodIdMapping implements Advice.OffsetMapping, Advice.OffsetMapping.Factory<MethodId> {
+
+    public static final MethodIdMapping INSTANCE = new MethodIdMapping();
+
+    @Override
+    public Class<MethodId> getAnnotationType() {
+        return MethodId.class;
+    }
+
+    @Override
+    public Advice.OffsetMapping make(ParameterDescription.InDefinedShape target,
+                                     AnnotationDescription.Loadable<MethodId> annotation,
+                                     AdviceType adviceType) {
+        if (!target.getType().asErasure().represents(int.class)) {
+            throw new IllegalStateException("@MethodId must be used on an int parameter: " + target);
+        }
+        return this;
+    }
+
+    @Override
+    public Target resolve(TypeDescription instrumentedType,
+                          MethodDescription instrumentedMethod,
+                          Assigner assigner,
+                          Advice.ArgumentHandler argumentHandler,
+                          Sort sort) {
+        int methodId = MethodRegistry.register(instrumentedType, instrumentedMethod);
+        return new Target.ForStackManipulation(IntegerConstant.forValue(methodId));
+    }
+}
@@ -4,6 +4,8 @@ import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.ClassFileVersion;
 import net.bytebuddy.agent.builder.AgentBuilder;
 import net.bytebuddy.asm.Advice;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.matcher.ElementMatcher;
 import net.bytebuddy.matcher.ElementMatchers;
 
@@ -29,16 +31,48 @@ public class MethodLoggerAgent {
         try {
             System.out.println("[MethodLoggerAgent] Agent started.");
 
+            // Anchor nanoTime to wall-clock time once; event times are derived from it
+            System.out.println("[MethodLoggerAgent] Time anchor: " + Timestamps.format(Timestamps.ANCHOR_NANO_TIME));
+
             Map<String, String> argsMap = parseAgentArgs(agentArgs);
             String logFile = argsMap.getOrDefault("logfile", "method_calls.jsonl");
             String htmlFile = argsMap.getOrDefault("htmlfile", "method_calls.html");
             String packages = argsMap.getOrDefault("packages", null);
             String excludePackages = argsMap.getOrDefault("excludePackages", null);
             Integer callerDepth = Helpers.fromString(argsMap.getOrDefault("callerDepth", "1"), 1);
+            String callers = argsMap.getOrDefault("callers", "STACK"); // STACK, SHADOW
+            boolean callerFallback = Boolean.parseBoolean(argsMap.getOrDefault("callerFallback", "true"));
+            String callerSampling = argsMap.getOrDefault("callerSampling", null); // N/M
+            boolean callSites = Boolean.parseBoolean(argsMap.getOrDefault("callSites", "false"));
             String logLevel = argsMap.getOrDefault("logLevel", "ALL"); // ALL, PUBLIC, PUBLIC_PROTECTED
+            String mode = argsMap.getOrDefault("mode", "TREE"); // TREE, TIMING
+            String captureArgs = argsMap.getOrDefault("captureArgs", null);
+            boolean inline = Boolean.parseBoolean(argsMap.getOrDefault("inline", "true"));
+            boolean bytecodeReport = Boolean.parseBoolean(argsMap.getOrDefault("bytecodeReport", "false"));
+            String overheadNanos = argsMap.getOrDefault("overheadNanos", null); // measured at startup if not set
+            long minDurationNanos = Helpers.fromString(argsMap.getOrDefault("minDurationNanos", null), 0L);
+            long detailSeconds = Helpers.fromString(argsMap.getOrDefault("detailSeconds", null), 0L);
+            long detailEvents = Helpers.fromString(argsMap.getOrDefault("detailEvents", null), 0L);
+            String includeThreads = argsMap.getOrDefault("includeThreads", null);
+            String excludeThreads = argsMap.getOrDefault("excludeThreads", null);
+            String trigger = argsMap.getOrDefault("trigger", null); // Class#method
+            String triggerScope = argsMap.getOrDefault("triggerScope", "THREAD"); // THREAD, ALL
+            long triggerWindowMillis = Helpers.fromString(argsMap.getOrDefault("triggerWindowMillis", null), 0L);
+            int flightRecorder = Helpers.fromString(argsMap.getOrDefault("flightRecorder", null), 0);
+            String flightRecorderTrigger = argsMap.getOrDefault("flightRecorderTrigger", null);
+            long tailThresholdNanos = Helpers.fromString(argsMap.getOrDefault("tailThresholdNanos", null), -1L);
+            int maxEventsPerSecPerMethod = Helpers.fromString(argsMap.getOrDefault("maxEventsPerSecPerMethod", null), 0);
+            double sampleRate = Helpers.fromString(argsMap.getOrDefault("sampleRate", null), 1.0);
+            int maxDepth = Helpers.fromString(argsMap.getOrDefault("maxDepth", null), Integer.MAX_VALUE);
+            boolean skipTrivial = Boolean.parseBoolean(argsMap.getOrDefault("skipTrivial", "false"));
+            int minInstructions = Helpers.fromString(argsMap.getOrDefault("minInstructions", "5"), 5);
+            boolean skipLeafMethods = Boolean.parseBoolean(argsMap.getOrDefault("skipLeafMethods", "false"));
+            boolean dropWhenBehind = Boolean.parseBoolean(argsMap.getOrDefault("dropWhenBehind", "false"));
 
             // Validate log file path
-            validateLogFilePath(logFile);
+            if (!MethodLoggingAdvice.NO_OUTPUT.equals(logFile)) {
+                validateLogFilePath(logFile);
+            }
 
             // Initialize the advice class with the log file path and HTML file path (must be done before any instrumentation)
             MethodLoggingAdvice.init(logFile, htmlFile, callerDepth);
@@ -46,6 +80,69 @@ public class MethodLoggerAgent {
             System.out.println("[MethodLoggerAgent] Logging to HTML: " + MethodLoggingAdvice.HTML_FILE);
             System.out.println("[MethodLoggerAgent] Log level: " + logLevel);
 
+            MethodLoggingAdvice.shadowCallers = "SHADOW".equalsIgnoreCase(callers);
+            MethodLoggingAdvice.callerFallback = callerFallback;
+            System.out.println("[MethodLoggerAgent] Callers: " + (MethodLoggingAdvice.shadowCallers
+                    ? "SHADOW (stack walk fallback " + (callerFallback ? "on" : "off") + ")"
+                    : "STACK"));
+
+            CallerSampler.init(callerSampling);
+            if (CallerSampler.enabled) {
+                System.out.println("[MethodLoggerAgent] Caller sampling: first " + CallerSampler.sampleFirst
+                        + " calls of each method, then 1 in " + CallerSampler.sampleEvery);
+            }
+
+            // mode=TIMING has no shadow stack to take the call site
+            boolean timingMode = "TIMING".equalsIgnoreCase(mode);
+            if (callSites && timingMode) {
+                System.err.println("[MethodLoggerAgent] WARNING: callSites requires mode=TREE; call sites not recorded");
+            }
+            CallSiteRegistry.enabled = callSites && !timingMode;
+            if (CallSiteRegistry.enabled) {
+                System.out.println("[MethodLoggerAgent] Call sites: recorded at each call from an instrumented method into an instrumented package");
+            }
+
+            MethodLoggingAdvice.maxDepth = Math.max(1, maxDepth);
+            if (maxDepth != Integer.MAX_VALUE) {
+                System.out.println("[MethodLoggerAgent] Max depth: " + MethodLoggingAdvice.maxDepth);
+            }
+
+            // The trigger is flagged when methods are registered, i.e. before installation
+            if (trigger != null) {
+                TriggerWindow.init(trigger, triggerScope, triggerWindowMillis);
+                if (TriggerWindow.triggerClass != null) {
+                    System.out.println("[MethodLoggerAgent] Trigger: " + trigger + " opens a recording window for "
+                            + (TriggerWindow.allThreads ? "all threads" : "its thread") + ", "
+                            + (triggerWindowMillis > 0 ? "lasting " + triggerWindowMillis + " ms" : "until it exits"));
+                }
+            }
+
+            // Argument capture rules are needed when methods are registered, i.e. before installation
+            ArgumentCapture.init(captureArgs);
+            System.out.println("[MethodLoggerAgent] Argument capture: " + (captureArgs != null ? captureArgs : "off"));
+
+            TrivialMethodFilter.init(skipTrivial, minInstructions, skipLeafMethods);
+            if (skipTrivial) {
+                Runtime.getRuntime().addShutdownHook(new Thread(TrivialMethodFilter::printSummary, "method-logger-trivial-report"));
+            }
+            System.out.println("[MethodLoggerAgent] Skip trivial methods: " + (skipTrivial
+                    ? "accessors, < " + minInstructions + " instructions" + (skipLeafMethods ? ", no invokes" : "")
+                    : "off"));
+
+            // --- Select the advice variant based on mode ---
+            Class<?> adviceClass;
+            switch (mode.toUpperCase()) {
+                case "TIMING":
+                    // Start time handed from enter to exit in a local variable, no shadow stack
+                    adviceClass = inline ? TimingAdvice.class : TimingAdvice.Delegating.class;
+                    break;
+                default:
+                    // Shadow stack with parent linkage and depth
+                    adviceClass = inline ? MethodLoggingAdvice.class : MethodLoggingAdvice.Delegating.class;
+                    break;
+            }
+            System.out.println("[MethodLoggerAgent] Mode: " + mode + " (" + adviceClass.getSimpleName() + ")");
+
             // --- Create the INCLUSION package matcher ---
             ElementMatcher.Junction<net.bytebuddy.description.type.TypeDescription> packageMatcher;
             if (packages != null && !packages.isEmpty()) {
@@ -111,6 +208,56 @@ public class MethodLoggerAgent {
                     .and(ElementMatchers.not(ElementMatchers.isTypeInitializer())); // Exclude static initializers
 
 
+            // --- Types to instrument: the INCLUSION matcher minus the exclusions ---
+            ElementMatcher.Junction<net.bytebuddy.description.type.TypeDescription> typeMatcher = packageMatcher
+                    // --- Apply User-defined EXCLUSIONS ---
+                    .and(ElementMatchers.not(excludeMatcher))
+
+                    // --- Default Exclusions for stability ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.datmt.agent")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("net.bytebuddy")))
+
+                    // --- JDK packages ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("java.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("javax.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("jdk.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("sun.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.sun.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.oracle.")))
+
+                    // --- Logging frameworks (CRITICAL to prevent infinite loops) ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.slf4j")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("ch.qos.logback")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.apache.log4j")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.apache.logging")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("java.util.logging")))
+
+                    // --- Common libraries that should not be instrumented ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.google.gson")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.fasterxml.jackson")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.json")))
+
+                    // --- Spring Framework internals ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.springframework.cglib")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.springframework.aop")))
+
+                    // --- Proxy and generated classes (more precise matching) ---
+                    .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$\\$.*")))
+                    .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$Proxy.*")))
+                    .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$ByteBuddy\\$.*")))
+                    .and(ElementMatchers.not(ElementMatchers.nameContains("CGLIB$$")))
+                    .and(ElementMatchers.not(ElementMatchers.nameContains("EnhancerBy")))
+
+                    // --- Lambda and anonymous classes ---
+                    .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$\\$Lambda\\$.*")))
+
+                    // --- Kotlin/Scala (if applicable) ---
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("kotlin.")))
+                    .and(ElementMatchers.not(ElementMatchers.nameStartsWith("scala.")));
+
+            // Only calls into the instrumented types can reach an enter advice that takes the call site
+            CallSiteRecorder callSiteRecorder = new CallSiteRecorder(typeMatcher);
+
             // Build the agent with error handling listener
             ElementMatcher.Junction<net.bytebuddy.description.method.MethodDescription> finalMethodMatcher = methodMatcher;
 
@@ -118,8 +265,92 @@ public class MethodLoggerAgent {
             ByteBuddy byteBuddy = new ByteBuddy()
                     .with(ClassFileVersion.ofThisVm());
 
-            new AgentBuilder.Default(byteBuddy)
-                    .with(new AgentBuilder.Listener.StreamWriting(System.out).withTransformationsOnly())
+            // The method ID and trigger flag of every instrumented method are baked into the advice as constants
+            Advice advice = Advice.withCustomMapping()
+                    .bind(MethodIdMapping.INSTANCE)
+                    .bind(TriggerMapping.INSTANCE)
+                    .bind(CapturedArgumentsMapping.INSTANCE)
+                    .to(adviceClass);
+
+            // --- Measure the advice overhead that nested calls add to their ancestors' durations ---
+            if (overheadNanos != null) {
+                MethodLoggingAdvice.overheadNanos = Helpers.fromString(overheadNanos, 0);
+            } else if (adviceClass == MethodLoggingAdvice.class || adviceClass == MethodLoggingAdvice.Delegating.class) {
+                MethodLoggingAdvice.overheadNanos = OverheadCalibration.calibrate(advice);
+            }
+            System.out.println("[MethodLoggerAgent] Advice overhead compensation: " + MethodLoggingAdvice.overheadNanos + " ns per descendant call");
+
+            // Sample only after calibration, which needs every call recorded
+            MethodLoggingAdvice.sampleRate = Math.max(0.0, Math.min(1.0, sampleRate));
+            if (sampleRate < 1.0) {
+                System.out.println("[MethodLoggerAgent] Sampling: " + MethodLoggingAdvice.sampleRate + " of root calls, with their whole call tree");
+            }
+
+            MethodLoggingAdvice.minDurationNanos = minDurationNanos;
+            if (minDurationNanos > 0) {
+                System.out.println("[MethodLoggerAgent] Minimum duration: " + minDurationNanos + " ns (faster calls only kept on the path to a slower one)");
+            }
+
+            DetailWindow.init(detailSeconds, detailEvents);
+            if (DetailWindow.enabled) {
+                System.out.println("[MethodLoggerAgent] Detail window: every call for the first "
+                        + (detailSeconds > 0 ? detailSeconds + " s" : "")
+                        + (detailSeconds > 0 && detailEvents > 0 ? " or " : "")
+                        + (detailEvents > 0 ? detailEvents + " calls" : "")
+                        + ", then per-method aggregates");
+            }
+
+            // Applied after calibration, whose thread must not be filtered out
+            ThreadFilter.init(includeThreads, excludeThreads);
+            if (includeThreads != null || excludeThreads != null) {
+                System.out.println("[MethodLoggerAgent] Threads: include " + (includeThreads != null ? includeThreads : "all")
+                        + ", exclude " + (excludeThreads != null ? excludeThreads : "none"));
+            }
+
+            // Recording stays off until the trigger is entered; calibration above needed it on
+            TriggerWindow.arm();
+            if (TriggerWindow.triggerClass != null && !adviceClass.getName().startsWith(MethodLoggingAdvice.class.getName())) {
+                System.err.println("[MethodLoggerAgent] WARNING: trigger requires mode=TREE; recording everything");
+                TriggerWindow.recording = true;
+            }
+
+            // Threads create their ring and tree buffer with their state, so these must be set before any is recorded
+            if (flightRecorder > 0) {
+                FlightRecorder.init(flightRecorder, flightRecorderTrigger);
+                System.out.println("[MethodLoggerAgent] Flight recorder: last " + flightRecorder + " calls per thread, dumped via JMX"
+                        + (flightRecorderTrigger != null ? ", trigger file " + flightRecorderTrigger : "") + " or on uncaught exceptions");
+            }
+
+            CallTreeBuffer.enabled = tailThresholdNanos >= 0;
+            CallTreeBuffer.thresholdNanos = tailThresholdNanos;
+            if (CallTreeBuffer.enabled) {
+                System.out.println("[MethodLoggerAgent] Tail capture: call trees kept if the root takes at least "
+                        + tailThresholdNanos + " ns or any call in them throws");
+            }
+
+            RateLimiter.init(maxEventsPerSecPerMethod);
+            if (RateLimiter.enabled) {
+                System.out.println("[MethodLoggerAgent] Rate limit: " + maxEventsPerSecPerMethod + " calls per second and method, the rest in summary records");
+            }
+
+            // Start the background writer that serializes the per-thread event buffers
+            EventWriter.dropWhenBehind = dropWhenBehind;
+            if (dropWhenBehind) {
+                System.out.println("[MethodLoggerAgent] Writer: events dropped (and counted) when it falls behind");
+            }
+            EventWriter.start();
+
+            AgentBuilder agentBuilder = new AgentBuilder.Default(byteBuddy)
+                    .with(new AgentBuilder.Listener.StreamWriting(System.out).withTransformationsOnly());
+
+            // --- Optional report of the bytecode added to each class ---
+            if (bytecodeReport) {
+                BytecodeReport report = new BytecodeReport();
+                agentBuilder = agentBuilder.with(report);
+                Runtime.getRuntime().addShutdownHook(new Thread(report::printSummary, "method-logger-bytecode-report"));
+            }
+
+            agentBuilder
                     .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
                     .with(AgentBuilder.InitializationStrategy.NoOp.INSTANCE)
                     .disableClassFormatChanges()
@@ -127,55 +358,30 @@ public class MethodLoggerAgent {
                             ElementMatchers.nameStartsWith("net.bytebuddy.")
                                     .or(ElementMatchers.isSynthetic())
                     ))
-                    .type(packageMatcher
-                            // --- Apply User-defined EXCLUSIONS ---
-                            .and(ElementMatchers.not(excludeMatcher))
-
-                            // --- Default Exclusions for stability ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.datmt.agent")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("net.bytebuddy")))
-
-                            // --- JDK packages ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("java.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("javax.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("jdk.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("sun.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.sun.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.oracle.")))
-
-                            // --- Logging frameworks (CRITICAL to prevent infinite loops) ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.slf4j")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("ch.qos.logback")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.apache.log4j")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.apache.logging")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("java.util.logging")))
-
-                            // --- Common libraries that should not be instrumented ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.google.gson")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("com.fasterxml.jackson")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.json")))
-
-                            // --- Spring Framework internals ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.springframework.cglib")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("org.springframework.aop")))
-
-                            // --- Proxy and generated classes (more precise matching) ---
-                            .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$\\$.*")))
-                            .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$Proxy.*")))
-                            .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$ByteBuddy\\$.*")))
-                            .and(ElementMatchers.not(ElementMatchers.nameContains("CGLIB$$")))
-                            .and(ElementMatchers.not(ElementMatchers.nameContains("EnhancerBy")))
-
-                            // --- Lambda and anonymous classes ---
-                            .and(ElementMatchers.not(ElementMatchers.nameMatches(".*\\$\\$Lambda\\$.*")))
-
-                            // --- Kotlin/Scala (if applicable) ---
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("kotlin.")))
-                            .and(ElementMatchers.not(ElementMatchers.nameStartsWith("scala.")))
-                    )
-                    .transform((builder, typeDescription, classLoader, module, protectionDomain) ->
-                            builder.visit(Advice.to(MethodLoggingAdvice.class).on(finalMethodMatcher))
-                    )
+                    .type(typeMatcher)
+                    .transform((builder, typeDescription, classLoader, module, protectionDomain) -> {
+                        // Leave trivial methods (accessors, tiny leaf methods) without advice
+                        Map<String, String> trivialMethods = TrivialMethodFilter.trivialMethodsOf(typeDescription, classLoader);
+
+                        // Resolve the names of the matched methods once, before any of them runs
+                        for (MethodDescription method : typeDescription.getDeclaredMethods().filter(finalMethodMatcher)) {
+                            String reason = trivialMethods.get(TrivialMethodFilter.keyOf(method));
+                            if (reason != null) {
+                                TrivialMethodFilter.report(typeDescription, method, reason);
+                            } else {
+                                MethodRegistry.register(typeDescription, method);
+                            }
+                        }
+                        builder = builder.visit(advice.on(finalMethodMatcher
+                                .and(ElementMatchers.not(TrivialMethodFilter.in(trivialMethods)))));
+
+                        // Visited after the advice, so only the original invoke instructions are rewritten
+                        if (CallSiteRegistry.enabled) {
+                            builder = builder.visit(new AsmVisitorWrapper.ForDeclaredMethods()
+                                    .invokable(finalMethodMatcher, callSiteRecorder));
+                        }
+                        return builder;
+                    })
                     .installOn(inst);
 
             System.out.println("[MethodLoggerAgent] Agent installation complete.");
@@ -7,15 +7,13 @@ import net.bytebuddy.asm.Advice;
 import net.bytebuddy.implementation.bytecode.assign.Assigner;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 /**
  * This class contains the "advice" logic that will be woven into the target methods.
@@ -23,41 +21,47 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class MethodLoggingAdvice {
 
-    /**
-     * Context information for tracking method calls in a hierarchy.
-     */
-    public static class CallContext {
-        public final String callId;
-        public final String parentCallId;
-        public final int depth;
-        public final long startTimeNanos;
-        public final long threadId;
-
-        public CallContext(String callId, String parentCallId, int depth, long startTimeNanos) {
-            this.callId = callId;
-            this.parentCallId = parentCallId;
-            this.depth = depth;
-            this.startTimeNanos = startTimeNanos;
-            this.threadId = Thread.currentThread().getId();
-        }
-    }
-
-    // A thread-local stack to store call context for nested calls
-    public static final ThreadLocal<Deque<CallContext>> callContextStack = ThreadLocal.withInitial(LinkedList::new);
-
     // Use a thread-safe, static Gson instance
     // Disabling HTML escaping prevents strings like "<" from becoming "\u003c"
     public static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
 
-    // The path to the log file, set by the agent premain
+    // File name that turns an output off
+    public static final String NO_OUTPUT = "none";
+
+    // Walks the stack lazily for getCallerMethods (no StackTraceElement array for the whole stack)
+    public static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    // Frames of classes in this package are the agent's own and never reported as callers
+    public static final String AGENT_PACKAGE = MethodLoggingAdvice.class.getPackageName() + ".";
+
+    // The path to the log file, set by the agent premain (null if JSONL output is off)
     public static Path LOG_FILE = Paths.get("method_calls.jsonl");
     public static Integer callerDepth = 1;
 
-    // HTML output file
-    public static Path HTML_FILE = Paths.get("method_calls.html");
+    // Build the callers from the shadow stack instead of walking the JVM stack (callers=SHADOW)
+    public static boolean shadowCallers = false;
+
+    // With shadowCallers, walk the JVM stack for calls without an instrumented caller
+    public static boolean callerFallback = true;
+
+    // Reported as callers of a call without an instrumented caller when callerFallback is off
+    public static final String NOT_INSTRUMENTED = "NOT_INSTRUMENTED";
+
+    // Cost of one instrumented call as seen by its ancestors, subtracted once per descendant
+    // from reported durations (measured at startup by OverheadCalibration)
+    public static long overheadNanos = 0;
+
+    // Maximum number of nested calls recorded per thread; deeper calls are only counted
+    public static int maxDepth = Integer.MAX_VALUE;
 
-    // Sequential call ID generator
-    public static final AtomicLong callIdGenerator = new AtomicLong(0);
+    // Calls faster than this are not recorded, unless a recorded call was made inside them
+    public static long minDurationNanos = 0;
+
+    // Fraction of root calls whose whole call tree is recorded (decided once per root)
+    public static double sampleRate = 1.0;
+
+    // HTML output file (null if HTML output is off)
+    public static Path HTML_FILE = Paths.get("method_calls.html");
 
     // Flag to track if HTML file has been initialized
     public static volatile boolean htmlInitialized = false;
@@ -72,13 +76,13 @@ public class MethodLoggingAdvice {
      * Initializes the logger with the specified log file path and HTML file path.
      * This is called by the agent's premain method.
      *
-     * @param logFile The path to the JSONL log file.
-     * @param htmlFile The path to the HTML output file.
-     * @param cd The caller depth.
+     * @param logFile The path to the JSONL log file, or "none".
+     * @param htmlFile The path to the HTML output file, or "none".
+     * @param cd The caller depth (0 disables caller capture).
      */
     public static void init(String logFile, String htmlFile, int cd) {
-        LOG_FILE = Paths.get(logFile);
-        HTML_FILE = Paths.get(htmlFile);
+        LOG_FILE = NO_OUTPUT.equals(logFile) ? null : Paths.get(logFile);
+        HTML_FILE = NO_OUTPUT.equals(htmlFile) ? null : Paths.get(htmlFile);
         callerDepth = cd;
     }
 
@@ -88,164 +92,386 @@ public class MethodLoggingAdvice {
      * @return The log file path.
      */
     public static String getLogFile() {
-        return LOG_FILE.toString();
+        return String.valueOf(LOG_FILE);
     }
 
     /**
      * This method is executed "on method enter" (before the original method's code).
-     * It creates a call context with ID, parent ID, depth, and start time.
+     * It pushes a frame with the call ID, method ID and start time; the depth is the frame's index.
+     *
+     * @param methodId The registry ID of the method being executed.
+     * @param trigger  Whether the method is the trigger (trigger option).
+     * @return The state of the current thread, handed to {@link #onExit} via {@code @Advice.Enter};
+     * null if the call is outside a recording window (trigger option).
      */
     @Advice.OnMethodEnter
-    public static void onEnter() {
-        Deque<CallContext> stack = callContextStack.get();
+    public static ThreadState onEnter(@MethodId int methodId, @Trigger boolean trigger) {
+        ThreadState state = ThreadState.current();
 
-        // Generate unique call ID
-        String callId = "CALL-" + callIdGenerator.incrementAndGet();
+        // Take the call site left by the caller before any early return, so it is never attributed to a later call
+        int callSite = state.callSite;
+        state.callSite = CallSiteRegistry.NONE;
 
-        // Get parent call ID from stack (if exists)
-        String parentCallId = null;
-        if (!stack.isEmpty()) {
-            parentCallId = stack.peek().callId;
+        // Threads filtered out by includeThreads/excludeThreads record nothing
+        if (state.excluded && state.stillExcluded()) {
+            return null;
         }
 
-        // Calculate depth
-        int depth = stack.size();
+        // The trigger opens a window; outside one, other calls are dropped
+        if (trigger) {
+            TriggerWindow.open(state);
+        } else if (!TriggerWindow.recording && !TriggerWindow.admit(state)) {
+            return null;
+        }
 
-        // Record start time
-        long startTime = System.nanoTime();
+        // Inside an unsampled call tree nothing is recorded; at a root, decide whether to record its tree
+        ShadowStack stack = state.stack;
+        if (stack.unsampledDepth > 0
+                || (stack.size == 0 && sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            stack.unsampledDepth++;
+            return state;
+        }
 
-        // Create and push context
-        CallContext context = new CallContext(callId, parentCallId, depth, startTime);
-        stack.push(context);
+        // Beyond the depth cap, only count the call on the deepest recorded frame
+        if (stack.size >= maxDepth) {
+            stack.enterTruncated();
+            return state;
+        }
+
+        // Generate unique call ID and push the frame with its start time
+        long callId = state.idAllocator.nextId();
+        int depth = stack.push(callId, methodId, System.nanoTime());
+
+        stack.callSites[depth] = callSite;
+        return state;
     }
 
     /**
      * This method is executed "on method exit" (after the original method's code).
-     * It logs everything to both the JSONL and HTML files.
+     * It records the call in the thread's buffer, from where the writer serializes it.
      *
-     * @param method   The method that was executed.
-     * @param allArgs  All arguments passed to the method.
+     * @param methodId The registry ID of the method that was executed.
+     * @param state    The state of the current thread, as returned by {@link #onEnter}; null if not recorded.
+     * @param args     The captured arguments, or null if argument capture is off for the method.
      * @param returned The value returned by the method.
      * @param thrown   The exception thrown by the method, if any.
      */
     @Advice.OnMethodExit(onThrowable = Throwable.class)
     public static void onExit(
-            @Advice.Origin Method method,
-            @Advice.AllArguments Object[] allArgs,
+            @MethodId int methodId,
+            @Advice.Enter ThreadState state,
+            @CapturedArguments Object[] args,
             @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object returned, // Handle void methods
             @Advice.Thrown Throwable thrown // Handle exceptions
     ) {
-        // 1. Pop context from stack
-        Deque<CallContext> stack = callContextStack.get();
-        if (stack.isEmpty()) {
+        // 1. Pop frame from stack (calls beyond the depth cap were never pushed)
+        if (state == null) {
+            return;
+        }
+        ShadowStack stack = state.stack;
+        if (state.triggerNesting >= 0
+                && stack.size + stack.unsampledDepth + stack.overflowDepth - 1 == state.triggerNesting) {
+            TriggerWindow.triggerExited(state);
+        }
+        if (stack.unsampledDepth > 0) {
+            stack.unsampledDepth--;
+            return;
+        }
+        if (stack.overflowDepth > 0) {
+            stack.overflowDepth--;
+            return;
+        }
+        if (stack.size == 0) {
             // Should never happen, but handle gracefully
             System.err.println("[MethodLoggerAgent] ERROR: Call stack is empty in onExit");
             return;
         }
 
-        CallContext context = stack.pop();
+        int depth = stack.size - 1;
 
-        // 2. Calculate duration (FIX THE BUG!)
-        long durationNanos = System.nanoTime() - context.startTimeNanos;
+        // 2. Calculate duration (FIX THE BUG!) and self time (duration minus the children's durations)
+        long endNanos = System.nanoTime();
+        long rawDurationNanos = endNanos - stack.startNanos[depth];
+        long rawSelfNanos = stack.pop(depth, rawDurationNanos);
 
-        // 3. Get the accurate caller by walking the stack trace
-        String callers = getCallerMethods(callerDepth);
+        // Every recorded descendant inflated the duration by the cost of its own advice; dropped ones
+        // only paid for the push and pop, which is left in
+        long durationNanos = Math.max(0, rawDurationNanos - stack.descendants[depth] * overheadNanos);
+        long selfNanos = Math.max(0, rawSelfNanos - stack.children[depth] * overheadNanos);
 
-        // 4. Build the log entry
-        Map<String, Object> logEntry = new HashMap<>();
-        logEntry.put("callId", context.callId);
-        logEntry.put("parentCallId", context.parentCallId);
-        logEntry.put("depth", context.depth);
-        logEntry.put("threadId", context.threadId);
-        logEntry.put("time", Instant.now().toString());
-        logEntry.put("callers", callers);
-
-        // Check for null package (e.g., default package)
-        Package pkg = method.getDeclaringClass().getPackage();
-        logEntry.put("package", pkg != null ? pkg.getName() : "default");
-
-        logEntry.put("class", method.getDeclaringClass().getSimpleName());
-        logEntry.put("method", method.getName());
-        logEntry.put("threadName", Thread.currentThread().getName());
-
-        // 5. Serialize parameters (names only to avoid JSON escaping issues in HTML)
-        Map<String, String> params = new HashMap<>();
-        Parameter[] parameters = method.getParameters();
-        for (int i = 0; i < parameters.length; i++) {
-            String paramName = parameters[i].getName(); // e.g., "arg0", "arg1"
-            // Just store parameter type instead of value to avoid escaping issues
-            String paramType = (i < allArgs.length && allArgs[i] != null) ?
-                allArgs[i].getClass().getSimpleName() : "null";
-            params.put(paramName, paramType);
+        boolean recorded = isRecorded(methodId, stack, depth, endNanos, durationNanos, selfNanos);
+        stack.countRecorded(depth, recorded);
+        if (!recorded) {
+            // A dropped root still ends the tree buffered for it (tailThresholdNanos)
+            if (depth == 0) {
+                state.discardTree();
+            }
+            return;
         }
-        logEntry.put("params", params);
 
-        // 6. Handle return value or exception (type only to avoid escaping issues)
-        if (thrown != null) {
-            logEntry.put("returnType", "EXCEPTION");
-            logEntry.put("returnData", thrown.getClass().getSimpleName());
+        // Keep the parent, which then keeps its own parent on exit, and so on up to the root
+        if (depth > 0) {
+            stack.retained[depth - 1] = true;
+        }
+
+        // 3. Fill the event; names are resolved from the method ID by the writer
+        CallEvent event = state.nextEvent();
+        fillEvent(event, state, methodId, args, returned, thrown);
+        event.endNanos = endNanos;
+        event.callId = stack.callIds[depth];
+        event.callSite = stack.callSites[depth];
+        event.parentCallId = stack.parentCallId(depth);
+        event.depth = depth;
+        event.durationNanos = durationNanos;
+        event.selfNanos = selfNanos;
+        event.rawDurationNanos = rawDurationNanos;
+        event.rawSelfNanos = rawSelfNanos;
+        event.truncatedCalls = stack.truncatedCalls[depth];
+
+        // 4. Hand it to the writer
+        state.commitEvent(depth == 0, endNanos);
+    }
+
+    /**
+     * Decides whether a finished call is written, accounting for it in the aggregates or suppressed totals if not.
+     *
+     * @param methodId      The registry ID of the method that was executed.
+     * @param stack         The shadow stack, with the call's frame already popped.
+     * @param depth         The depth of the call.
+     * @param endNanos      The end time of the call.
+     * @param durationNanos The (compensated) duration of the call.
+     * @param selfNanos     The (compensated) self time of the call.
+     * @return Whether the call is recorded.
+     */
+    public static boolean isRecorded(int methodId, ShadowStack stack, int depth,
+                                     long endNanos, long durationNanos, long selfNanos) {
+        // After the startup detail window, calls only add to their method's totals
+        if (DetailWindow.aggregateOnly) {
+            DetailWindow.aggregate(methodId, durationNanos, selfNanos);
+            return false;
+        }
+
+        // The path to a recorded call is always kept, so recorded calls never point to a missing parent
+        if (stack.retained[depth]) {
+            return true;
+        }
+
+        // Fast calls are dropped
+        if (durationNanos < minDurationNanos) {
+            return false;
+        }
+
+        // Over the method's rate limit, the call is only added to its suppressed totals
+        return !RateLimiter.enabled || RateLimiter.admit(methodId, endNanos, durationNanos, selfNanos);
+    }
+
+    /**
+     * Fills the fields of an event that do not depend on the call hierarchy:
+     * thread, callers, argument types and return value or exception.
+     *
+     * @param event    The (reused) event to fill.
+     * @param state    The state of the current thread.
+     * @param methodId The registry ID of the method that was executed.
+     * @param args     The captured arguments, or null if argument capture is off for the method.
+     * @param returned The value returned by the method.
+     * @param thrown   The exception thrown by the method, if any.
+     */
+    public static void fillEvent(CallEvent event, ThreadState state, int methodId,
+                                 Object[] args, Object returned, Throwable thrown) {
+        event.methodId = methodId;
+        event.threadId = state.threadId;
+        event.threadName = state.threadName();
+
+        // The popped frame's ancestors are the instrumented callers; otherwise walk the stack trace
+        event.callerCount = 0;
+        event.callersSampled = true;
+        event.callersIndirect = false;
+        ShadowStack stack = state.stack;
+        // With callSites=true, an uninstrumented frame (a JDK callback, a lambda, a skipped method) between
+        // the parent frame and this call is detected: the parent's last call site does not target this method
+        boolean shadow = shadowCallers && callerDepth > 0 && (stack.size > 0 || !callerFallback);
+        boolean indirect = shadow && stack.size > 0 && CallSiteRegistry.enabled
+                && !CallSiteRegistry.isDirect(stack.callSites[stack.size], MethodRegistry.get(methodId));
+        if (shadow && !(indirect && callerFallback)) {
+            fillCallerIds(event, stack);
+            event.callersIndirect = indirect;
+        } else if (CallerSampler.enabled && callerDepth > 0) {
+            event.callers = CallerSampler.callers(event, methodId, callerDepth);
         } else {
-            logEntry.put("returnType", method.getReturnType().getSimpleName());
-            logEntry.put("returnData", (returned != null) ? returned.getClass().getSimpleName() : "null");
+            event.callers = getCallerMethods(callerDepth);
         }
 
-        logEntry.put("durationNanos", durationNanos);
+        // Record runtime types of the captured arguments (types only to avoid escaping issues in HTML)
+        int argCount = 0;
+        if (args != null) {
+            argCount = args.length;
+            if (event.argTypes == null || event.argTypes.length < argCount) {
+                event.argTypes = new int[argCount];
+            }
+            for (int i = 0; i < argCount; i++) {
+                event.argTypes[i] = TypeNames.idOf(args[i]);
+            }
+        }
+        event.argCount = argCount;
 
-        // 7. Write to both JSONL and HTML files
-        writeLog(logEntry);
-        writeHtmlLog(logEntry);
+        // Handle return value or exception (type only to avoid escaping issues)
+        event.thrown = thrown != null;
+        event.returnType = TypeNames.idOf(thrown != null ? thrown : returned);
     }
 
     /**
-     * Finds the calling method by walking the stack trace.
-     * This is slow but accurate, as requested.
+     * Copies the method IDs of up to callerDepth frames from the top of the shadow stack, nearest first.
+     * The cost does not depend on the depth of the JVM stack.
      *
-     * @return The fully-qualified name of the caller method.
+     * @param event The (reused) event to fill.
+     * @param stack The shadow stack, with the frame of the finished call already popped.
      */
-    public static String getCallerMethods(int callerDepth) {
-        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
-        String agentClassName = MethodLoggingAdvice.class.getName();
-        List<String> callers = new ArrayList<>();
+    public static void fillCallerIds(CallEvent event, ShadowStack stack) {
+        int count = Math.min(callerDepth, stack.size);
+        if (event.callerIds == null || event.callerIds.length < count) {
+            event.callerIds = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            event.callerIds[i] = stack.methodIds[stack.size - 1 - i];
+        }
+        event.callerCount = count;
+        event.callers = count == 0 ? NOT_INSTRUMENTED : null;
+    }
 
-        boolean foundInstrumentedMethod = false;
+    /**
+     * Non-inlined variant of this advice, selected with "inline=false".
+     * Byte Buddy weaves only a call to these methods into each instrumented method instead of
+     * copying the advice body, which keeps small methods below the JIT's inlining size limits.
+     */
+    public static class Delegating {
 
-        // Walk the stack to collect callers
-        for (StackTraceElement frame : stack) {
-            String className = frame.getClassName();
+        @Advice.OnMethodEnter(inline = false)
+        public static ThreadState onEnter(@MethodId int methodId, @Trigger boolean trigger) {
+            return MethodLoggingAdvice.onEnter(methodId, trigger);
+        }
 
-            // Skip the agent's advice class frames
-            if (className.equals(agentClassName)) {
-                continue;
-            }
+        @Advice.OnMethodExit(inline = false, onThrowable = Throwable.class)
+        public static void onExit(
+                @MethodId int methodId,
+                @Advice.Enter ThreadState state,
+                @CapturedArguments Object[] args,
+                @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object returned,
+                @Advice.Thrown Throwable thrown
+        ) {
+            MethodLoggingAdvice.onExit(methodId, state, args, returned, thrown);
+        }
+    }
 
-            // Skip Thread.getStackTrace() and this method itself
-            if (className.equals(Thread.class.getName()) ||
-                    frame.getMethodName().equals("getCallerMethod")) {
-                continue;
-            }
+    /**
+     * Builds the serialized form of a call, looking up the method names by its ID.
+     *
+     * @param event The recorded call.
+     * @return The map containing the log data.
+     */
+    public static Map<String, Object> toLogEntry(CallEvent event) {
+        MethodRegistry.MethodMetadata metadata = MethodRegistry.get(event.methodId);
 
-            if (!foundInstrumentedMethod) {
-                // First non-agent frame is the instrumented method itself - skip it
-                foundInstrumentedMethod = true;
-                continue;
+        Map<String, Object> logEntry = new HashMap<>();
+        logEntry.put("callId", CallIdAllocator.format(event.callId));
+        logEntry.put("parentCallId", CallIdAllocator.format(event.parentCallId));
+        logEntry.put("depth", event.depth);
+        logEntry.put("threadId", event.threadId);
+        logEntry.put("time", Timestamps.format(event.endNanos));
+        logEntry.put("callers", event.callerCount > 0 ? formatCallers(event) : event.callers);
+        if (!event.callersSampled) {
+            logEntry.put("callersSampled", false);
+        }
+        if (event.callersIndirect) {
+            logEntry.put("callersIndirect", true);
+        }
+        if (event.callSite != CallSiteRegistry.NONE) {
+            logEntry.put("callSite", event.callSite);
+            if (!CallSiteRegistry.isDirect(event.callSite, metadata)) {
+                logEntry.put("callSiteIndirect", true);
             }
+        }
+        logEntry.put("package", metadata.packageName);
+        logEntry.put("class", metadata.className);
+        logEntry.put("method", metadata.methodName);
+        logEntry.put("threadName", event.threadName);
 
-            // Now we're collecting actual callers
-            String caller = className + "." + frame.getMethodName() +
-                    ":" + frame.getLineNumber();
-            callers.add(caller);
+        // Parameter names come from the registry; types are the captured runtime types
+        // where argument capture is on, and the declared types everywhere else
+        Map<String, String> params = new HashMap<>();
+        String[] parameterNames = metadata.parameterNames;
+        for (int i = 0; i < parameterNames.length; i++) {
+            params.put(parameterNames[i], metadata.parameterTypes[i]);
+        }
+        int[] capturedArgs = metadata.capturedArgs;
+        for (int i = 0; i < capturedArgs.length && i < event.argCount; i++) {
+            params.put(parameterNames[capturedArgs[i]], TypeNames.name(event.argTypes[i]));
+        }
+        logEntry.put("params", params);
 
-            // Stop when we have enough callers
-            if (callers.size() >= callerDepth) {
-                break;
+        if (event.thrown) {
+            logEntry.put("returnType", "EXCEPTION");
+        } else {
+            logEntry.put("returnType", metadata.returnType);
+        }
+        logEntry.put("returnData", TypeNames.name(event.returnType));
+
+        if (event.truncatedCalls > 0) {
+            logEntry.put("truncatedCalls", event.truncatedCalls);
+        }
+        logEntry.put("durationNanos", event.durationNanos);
+        logEntry.put("rawDurationNanos", event.rawDurationNanos);
+        if (event.selfNanos >= 0) {
+            logEntry.put("selfNanos", event.selfNanos);
+            logEntry.put("rawSelfNanos", event.rawSelfNanos);
+        }
+        return logEntry;
+    }
+
+    /**
+     * Formats the caller IDs of an event the same way as {@link #getCallerMethods}, without line numbers.
+     *
+     * @param event The event.
+     * @return The fully-qualified names of the caller methods.
+     */
+    public static String formatCallers(CallEvent event) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < event.callerCount; i++) {
+            if (i > 0) {
+                sb.append(" <- ");
             }
+            MethodRegistry.MethodMetadata caller = MethodRegistry.get(event.callerIds[i]);
+            sb.append(caller != null ? caller.qualifiedName() : "UNKNOWN");
         }
+        return sb.toString();
+    }
+
+    /**
+     * Finds the calling methods by walking the stack.
+     * The walk is lazy: only the frames up to the last collected caller are materialized,
+     * so the cost depends on callerDepth instead of on the depth of the whole stack.
+     *
+     * @param callerDepth The number of callers to collect; 0 disables the stack walk.
+     * @return The fully-qualified names of the caller methods, or null if disabled.
+     */
+    public static String getCallerMethods(int callerDepth) {
+        if (callerDepth <= 0) {
+            return null;
+        }
+
+        String callers = STACK_WALKER.walk(frames -> frames
+                // Skip the agent's frames (advice classes, delegating advice and dispatchers)
+                .filter(frame -> !frame.getClassName().startsWith(AGENT_PACKAGE))
+                // First non-agent frame is the instrumented method itself - skip it
+                .skip(1)
+                .limit(callerDepth)
+                .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .collect(Collectors.joining(" <- ")));
 
         if (callers.isEmpty()) {
             return "ENTRYPOINT_OF_THREAD";
         }
 
-        return String.join(" <- ", callers);
+        return callers;
     }
 
 
@@ -271,14 +497,25 @@ public class MethodLoggingAdvice {
     }
 
     /**
-     * Writes the log entry (as a JSON string) to the log file.
+     * Writes the log entries (as JSON lines) to the log file in a single append.
      * This method is synchronized to prevent multiple threads from writing at the same time.
      *
-     * @param logEntry The map containing the log data.
+     * @param logEntries The maps containing the log data.
      */
-    public static synchronized void writeLog(Map<String, Object> logEntry) {
+    public static synchronized void writeLog(List<Map<String, Object>> logEntries) {
         try {
-            String jsonLog = GSON.toJson(logEntry) + "\n";
+            StringBuilder jsonLog = new StringBuilder();
+            for (Map<String, Object> logEntry : logEntries) {
+                // A call site's location precedes the first call that refers to it by ID
+                Object callSite = logEntry.get("callSite");
+                if (callSite instanceof Integer) {
+                    Map<String, Object> dictionaryEntry = CallSiteRegistry.dictionaryEntry((Integer) callSite);
+                    if (dictionaryEntry != null) {
+                        jsonLog.append(GSON.toJson(dictionaryEntry)).append('\n');
+                    }
+                }
+                jsonLog.append(GSON.toJson(logEntry)).append('\n');
+            }
             Files.writeString(LOG_FILE, jsonLog, StandardOpenOption.APPEND, StandardOpenOption.CREATE);
         } catch (IOException e) {
             System.err.println("[MethodLoggerAgent] ERROR: Failed to write to log file: " + e.getMessage());
@@ -310,11 +547,11 @@ public class MethodLoggingAdvice {
     }
 
     /**
-     * Appends a method call entry to the HTML file.
+     * Appends method call entries to the HTML file, rewriting it once for the whole batch.
      *
-     * @param logEntry The map containing the log data.
+     * @param logEntries The maps containing the log data.
      */
-    public static void writeHtmlLog(Map<String, Object> logEntry) {
+    public static void writeHtmlLog(List<Map<String, Object>> logEntries) {
         // Lazy initialization
         if (!htmlInitialized) {
             initHtmlFile();
@@ -322,8 +559,10 @@ public class MethodLoggingAdvice {
 
         synchronized (htmlWriteLock) {
             try {
-                String jsonEntry = GSON.toJson(logEntry);
-                String pushStatement = "        methodCalls.push(" + jsonEntry + ");\n";
+                StringBuilder pushStatement = new StringBuilder();
+                for (Map<String, Object> logEntry : logEntries) {
+                    pushStatement.append("        methodCalls.push(").append(GSON.toJson(logEntry)).append(");\n");
+                }
 
                 // Read current content
                 String content = Files.readString(HTML_FILE);
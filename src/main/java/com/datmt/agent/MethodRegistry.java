@@ -0,0 +1,156 @@
+package com.datmt.agent;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.ParameterDescription;
+import net.bytebuddy.description.type.PackageDescription;
+import net.bytebuddy.description.type.TypeDescription;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of all instrumented methods.
+ * Every method gets a dense int ID at transform time; the ID is baked into the woven advice
+ * as a constant, and the names are resolved once into a metadata table that the writer reads.
+ */
+public class MethodRegistry {
+
+    /**
+     * Names of an instrumented method, resolved once at transform time.
+     */
+    public static class MethodMetadata {
+        public final int id;
+        public final String packageName;
+        public final String className;
+        public final String methodName;
+        public final String[] parameterNames;
+        public final String[] parameterTypes; // declared types
+        public final int[] capturedArgs;      // parameter indices whose runtime type is captured
+        public final String returnType;
+
+        // Name and descriptor of the method, and the names of the types an invoke can name to reach it
+        // (its declaring type and supertypes); only set when call sites are recorded (callSites)
+        public String invokedAs;
+        public String[] owners;
+
+        // Caller samples of the method; null unless callerSampling is on
+        public final CallerSampler.MethodCallers callerSamples = CallerSampler.enabled ? new CallerSampler.MethodCallers() : null;
+
+        // Rate limit and suppressed totals of the method; null unless maxEventsPerSecPerMethod is set
+        public final RateLimiter.MethodBudget rateBudget = RateLimiter.enabled ? new RateLimiter.MethodBudget() : null;
+
+        // Totals of the method after the startup detail window; null unless detailSeconds or detailEvents is set
+        public final DetailWindow.MethodTotals totals = DetailWindow.enabled ? new DetailWindow.MethodTotals() : null;
+
+        public MethodMetadata(int id, String packageName, String className, String methodName,
+                              String[] parameterNames, String[] parameterTypes, int[] capturedArgs,
+                              String returnType) {
+            this.id = id;
+            this.packageName = packageName;
+            this.className = className;
+            this.methodName = methodName;
+            this.parameterNames = parameterNames;
+            this.parameterTypes = parameterTypes;
+            this.capturedArgs = capturedArgs;
+            this.returnType = returnType;
+        }
+
+        /**
+         * Gets the fully-qualified name of the method, as reported in "callers".
+         *
+         * @return The package, class and method name.
+         */
+        public String qualifiedName() {
+            return "default".equals(packageName)
+                    ? className + "." + methodName
+                    : packageName + "." + className + "." + methodName;
+        }
+    }
+
+    // Method key (type name + method name + descriptor) to its ID, so retransformations reuse the same ID
+    public static final Map<String, Integer> idsByKey = new ConcurrentHashMap<>();
+
+    // Metadata table indexed by method ID. A new slot is written under the class lock, into a copy when the
+    // table grows, and published by the volatile writes of table and size that follow
+    public static volatile MethodMetadata[] table = new MethodMetadata[1024];
+
+    // Number of registered methods
+    public static volatile int size = 0;
+
+    /**
+     * Registers a method (if not registered yet) and returns its ID.
+     *
+     * @param type   The instrumented type.
+     * @param method The instrumented method.
+     * @return The method ID.
+     */
+    public static int register(TypeDescription type, MethodDescription method) {
+        String key = type.getName() + "#" + method.getInternalName() + method.getDescriptor();
+        Integer existing = idsByKey.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        synchronized (MethodRegistry.class) {
+            existing = idsByKey.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            int id = size;
+            MethodMetadata[] current = table;
+            if (id >= current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[id] = describe(id, type, method);
+            table = current;
+            size = id + 1;
+            idsByKey.put(key, id);
+            return id;
+        }
+    }
+
+    /**
+     * Gets the metadata of a registered method.
+     *
+     * @param id The method ID.
+     * @return The metadata, or null if the ID is unknown.
+     */
+    public static MethodMetadata get(int id) {
+        MethodMetadata[] current = table;
+        return (id >= 0 && id < current.length) ? current[id] : null;
+    }
+
+    /**
+     * Resolves the names of a method the same way the advice used to do through reflection.
+     */
+    private static MethodMetadata describe(int id, TypeDescription type, MethodDescription method) {
+        // Check for null package (e.g., default package)
+        PackageDescription pkg = type.getPackage();
+        String packageName = (pkg != null && !pkg.getName().isEmpty()) ? pkg.getName() : "default";
+
+        String[] parameterNames = new String[method.getParameters().size()];
+        String[] parameterTypes = new String[parameterNames.length];
+        for (ParameterDescription parameter : method.getParameters()) {
+            parameterNames[parameter.getIndex()] = parameter.getName(); // e.g., "arg0", "arg1"
+            parameterTypes[parameter.getIndex()] = parameter.getType().asErasure().getSimpleName();
+        }
+
+        MethodMetadata metadata = new MethodMetadata(
+                id,
+                packageName,
+                type.getSimpleName(),
+                method.getName(),
+                parameterNames,
+                parameterTypes,
+                ArgumentCapture.indicesFor(type, method),
+                method.getReturnType().asErasure().getSimpleName()
+        );
+        if (CallSiteRegistry.enabled) {
+            metadata.invokedAs = method.getInternalName() + method.getDescriptor();
+            metadata.owners = CallSiteRegistry.ownersOf(type);
+        }
+        return metadata;
+    }
+}
@@ -0,0 +1,93 @@
+package com.datmt.agent;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.matcher.ElementMatchers;
+
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Measures the per-call cost of the configured advice at startup.
+ * A copy of {@link Target} with the advice woven in is timed against the plain class in a loop;
+ * the difference per call is how much each instrumented call inflates the durations of its ancestors.
+ * Calibration runs on its own thread and its events are discarded before the writer starts.
+ */
+public class OverheadCalibration {
+
+    public static final int CALLS_PER_ROUND = 5_000;
+    public static final int ROUNDS = 10;
+
+    /**
+     * The synthetic method being instrumented.
+     */
+    public static class Target implements LongUnaryOperator {
+        @Override
+        public long applyAsLong(long x) {
+            return x * 31 + 7;
+        }
+    }
+
+    // Keeps the loop results alive so the JIT cannot remove the calls
+    public static volatile long sink;
+
+    /**
+     * Measures the cost of one instrumented call.
+     * Must be called before {@link EventWriter#start()}: it clears the writer's pending queue.
+     *
+     * @param advice The advice as configured for the application.
+     * @return The overhead in nanoseconds per instrumented call (0 if it could not be measured).
+     */
+    public static long calibrate(Advice advice) {
+        long[] result = new long[1];
+        Thread thread = new Thread(() -> result[0] = measure(advice), "method-logger-calibration");
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Throw away the calibration calls
+        EventWriter.pending.clear();
+        EventWriter.droppedEvents.set(0);
+        ThreadState.ALL.removeIf(state -> state.thread == thread);
+        return result[0];
+    }
+
+    private static long measure(Advice advice) {
+        try {
+            Class<?> woven = new ByteBuddy()
+                    .redefine(Target.class)
+                    .visit(advice.on(ElementMatchers.named("applyAsLong")))
+                    .make()
+                    .load(Target.class.getClassLoader(), ClassLoadingStrategy.Default.CHILD_FIRST)
+                    .getLoaded();
+            LongUnaryOperator instrumented = (LongUnaryOperator) woven.getDeclaredConstructor().newInstance();
+            LongUnaryOperator plain = new Target();
+
+            // Keep the best round of each: later rounds run compiled code, noise only adds time
+            long bestInstrumented = Long.MAX_VALUE;
+            long bestPlain = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                bestInstrumented = Math.min(bestInstrumented, timeRound(instrumented));
+                bestPlain = Math.min(bestPlain, timeRound(plain));
+            }
+            return Math.max(0, (bestInstrumented - bestPlain) / CALLS_PER_ROUND);
+        } catch (Exception e) {
+            System.err.println("[MethodLoggerAgent] WARNING: Overhead calibration failed: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static long timeRound(LongUnaryOperator operator) {
+        long acc = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS_PER_ROUND; i++) {
+            acc += operator.applyAsLong(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = acc;
+        return elapsed;
+    }
+}
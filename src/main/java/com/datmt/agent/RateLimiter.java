@@ -0,0 +1,138 @@
+package com.datmt.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-method limit on the number of recorded calls, enabled with "maxEventsPerSecPerMethod".
+ * Each method has a token bucket refilled at the configured rate (and holding at most one second's worth);
+ * a finished call that finds the bucket empty is not recorded. Its duration is added to the method's
+ * suppressed totals instead, which the writer periodically emits as "summary" records,
+ * so the totals over all records stay exact.
+ * In mode=TREE the callers of a recorded call are recorded without asking the limiter, so the tree stays connected.
+ */
+public class RateLimiter {
+
+    // How often the suppressed totals are written
+    public static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    public static boolean enabled = false;
+
+    // Tokens added per nanosecond, and the bucket size
+    public static double tokensPerNano;
+    public static double capacity;
+
+    // Start of the period covered by the next summary records
+    public static long summaryStartNanos = System.nanoTime();
+
+    /**
+     * Token bucket and suppressed totals of one method.
+     * The bucket is updated without synchronization: a lost update only lets a call more or less through.
+     * The totals are atomic, since they must add up exactly.
+     */
+    public static class MethodBudget {
+        public double tokens = -1; // filled on first use
+        public long lastRefillNanos;
+
+        public final AtomicLong suppressedCalls = new AtomicLong();
+        public final AtomicLong suppressedDurationNanos = new AtomicLong();
+        public final AtomicLong suppressedSelfNanos = new AtomicLong();
+    }
+
+    /**
+     * Initializes the limiter from the agent options.
+     *
+     * @param maxEventsPerSec Maximum number of recorded calls per second and method; 0 or less disables the limit.
+     */
+    public static void init(int maxEventsPerSec) {
+        enabled = maxEventsPerSec > 0;
+        tokensPerNano = maxEventsPerSec / 1e9;
+        capacity = maxEventsPerSec;
+    }
+
+    /**
+     * Decides whether a finished call is recorded; if not, adds it to the method's suppressed totals.
+     *
+     * @param methodId      The registry ID of the method.
+     * @param endNanos      The end time of the call.
+     * @param durationNanos The (compensated) duration of the call.
+     * @param selfNanos     The (compensated) self time of the call, or -1 if unknown.
+     * @return Whether the call should be recorded.
+     */
+    public static boolean admit(int methodId, long endNanos, long durationNanos, long selfNanos) {
+        MethodRegistry.MethodMetadata metadata = MethodRegistry.get(methodId);
+        if (metadata == null || metadata.rateBudget == null) {
+            return true;
+        }
+
+        MethodBudget budget = metadata.rateBudget;
+        double tokens = budget.tokens < 0
+                ? capacity
+                : Math.min(capacity, budget.tokens + (endNanos - budget.lastRefillNanos) * tokensPerNano);
+        budget.lastRefillNanos = endNanos;
+        if (tokens >= 1) {
+            budget.tokens = tokens - 1;
+            return true;
+        }
+        budget.tokens = tokens;
+
+        budget.suppressedCalls.incrementAndGet();
+        budget.suppressedDurationNanos.addAndGet(durationNanos);
+        if (selfNanos >= 0) {
+            budget.suppressedSelfNanos.addAndGet(selfNanos);
+        }
+        return false;
+    }
+
+    /**
+     * Takes the suppressed totals of all methods and resets them.
+     *
+     * @param nowNanos The end of the period covered by the records.
+     * @return One "summary" record per method with suppressed calls in the period.
+     */
+    public static List<Map<String, Object>> drainSummaries(long nowNanos) {
+        List<Map<String, Object>> summaries = new ArrayList<>();
+        int size = MethodRegistry.size;
+        for (int id = 0; id < size; id++) {
+            MethodRegistry.MethodMetadata metadata = MethodRegistry.get(id);
+            if (metadata == null || metadata.rateBudget == null) {
+                continue;
+            }
+
+            MethodBudget budget = metadata.rateBudget;
+            long calls = budget.suppressedCalls.getAndSet(0);
+            if (calls == 0) {
+                continue;
+            }
+
+            Map<String, Object> summary = new HashMap<>();
+            summary.put("type", "summary");
+            summary.put("package", metadata.packageName);
+            summary.put("class", metadata.className);
+            summary.put("method", metadata.methodName);
+            summary.put("from", Timestamps.format(summaryStartNanos));
+            summary.put("time", Timestamps.format(nowNanos));
+            summary.put("suppressedCalls", calls);
+            summary.put("suppressedDurationNanos", budget.suppressedDurationNanos.getAndSet(0));
+            summary.put("suppressedSelfNanos", budget.suppressedSelfNanos.getAndSet(0));
+            summaries.add(summary);
+        }
+        summaryStartNanos = nowNanos;
+        return summaries;
+    }
+
+    /**
+     * Writes the summary records of the suppressed calls to the JSONL file.
+     * They are not added to the HTML viewer, which only shows calls.
+     */
+    public static void writeSummaries() {
+        List<Map<String, Object>> summaries = drainSummaries(System.nanoTime());
+        if (!summaries.isEmpty() && MethodLoggingAdvice.LOG_FILE != null) {
+            MethodLoggingAdvice.writeLog(summaries);
+        }
+    }
+}
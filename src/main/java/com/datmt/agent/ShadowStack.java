@@ -0,0 +1,136 @@
+package com.datmt.agent;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread stack of the instrumented calls currently in progress.
+ * Frames are stored in parallel primitive arrays that only grow when a deeper call chain is seen,
+ * so pushing and popping a frame allocates nothing. The depth of a frame is its index.
+ */
+public class ShadowStack {
+
+    public static final int INITIAL_CAPACITY = 64;
+
+    // Call ID of each frame
+    public long[] callIds = new long[INITIAL_CAPACITY];
+
+    // Registry ID of the method of each frame
+    public int[] methodIds = new int[INITIAL_CAPACITY];
+
+    // CallSiteRegistry ID of the call site each frame was called from (CallSiteRegistry.NONE if unknown)
+    public int[] callSites = new int[INITIAL_CAPACITY];
+
+    // System.nanoTime() at entry of each frame
+    public long[] startNanos = new long[INITIAL_CAPACITY];
+
+    // Sum of the inclusive durations of the finished children of each frame
+    public long[] childNanos = new long[INITIAL_CAPACITY];
+
+    // Number of recorded direct children and of all recorded descendants of each frame; only recorded
+    // calls paid the full advice cost that is subtracted from the durations (overheadNanos)
+    public int[] children = new int[INITIAL_CAPACITY];
+    public int[] descendants = new int[INITIAL_CAPACITY];
+
+    // Number of calls below the top frame that were not recorded because of the depth cap
+    public int[] truncatedCalls = new int[INITIAL_CAPACITY];
+
+    // Whether a descendant of each frame was recorded, so the frame is recorded too (minDurationNanos)
+    public boolean[] retained = new boolean[INITIAL_CAPACITY];
+
+    // Number of frames on the stack (the depth of the next pushed frame)
+    public int size = 0;
+
+    // Number of calls in progress beyond the depth cap (they are counted, not pushed)
+    public int overflowDepth = 0;
+
+    // Number of calls in progress in a call tree whose root was not sampled (they are neither counted nor pushed)
+    public int unsampledDepth = 0;
+
+    /**
+     * Pushes a new frame.
+     *
+     * @param callId     The call ID.
+     * @param methodId   The registry ID of the method.
+     * @param startNanos The start time of the call.
+     * @return The depth of the new frame.
+     */
+    public int push(long callId, int methodId, long startNanos) {
+        int depth = size;
+        if (depth == callIds.length) {
+            grow();
+        }
+        callIds[depth] = callId;
+        methodIds[depth] = methodId;
+        this.startNanos[depth] = startNanos;
+        childNanos[depth] = 0;
+        children[depth] = 0;
+        descendants[depth] = 0;
+        truncatedCalls[depth] = 0;
+        retained[depth] = false;
+        size = depth + 1;
+        return depth;
+    }
+
+    /**
+     * Counts a call that is too deep to be pushed; it is noted on the current top frame.
+     * Must only be called when the stack holds at least one frame.
+     */
+    public void enterTruncated() {
+        overflowDepth++;
+        truncatedCalls[size - 1]++;
+    }
+
+    /**
+     * Gets the call ID of the frame below the given depth.
+     *
+     * @param depth The depth of a frame.
+     * @return The parent call ID, or 0 for a root frame.
+     */
+    public long parentCallId(int depth) {
+        return depth > 0 ? callIds[depth - 1] : 0;
+    }
+
+    /**
+     * Pops the frame at the given depth and adds its inclusive duration to its parent's child time.
+     * The popped frame's values stay readable until the next push.
+     *
+     * @param depth         The depth of the frame (the top of the stack).
+     * @param durationNanos The inclusive duration of the call.
+     * @return The exclusive (self) duration of the call.
+     */
+    public long pop(int depth, long durationNanos) {
+        size = depth;
+        if (depth > 0) {
+            childNanos[depth - 1] += durationNanos;
+        }
+        return durationNanos - childNanos[depth];
+    }
+
+    /**
+     * Adds a popped frame's recorded descendants, and the frame itself if it was recorded, to its parent's counts.
+     *
+     * @param depth    The depth of the popped frame.
+     * @param recorded Whether the call of the frame was recorded.
+     */
+    public void countRecorded(int depth, boolean recorded) {
+        if (depth > 0) {
+            if (recorded) {
+                children[depth - 1]++;
+            }
+            descendants[depth - 1] += descendants[depth] + (recorded ? 1 : 0);
+        }
+    }
+
+    private void grow() {
+        int capacity = callIds.length * 2;
+        callIds = Arrays.copyOf(callIds, capacity);
+        methodIds = Arrays.copyOf(methodIds, capacity);
+        callSites = Arrays.copyOf(callSites, capacity);
+        startNanos = Arrays.copyOf(startNanos, capacity);
+        childNanos = Arrays.copyOf(childNanos, capacity);
+        children = Arrays.copyOf(children, capacity);
+        descendants = Arrays.copyOf(descendants, capacity);
+        truncatedCalls = Arrays.copyOf(truncatedCalls, capacity);
+        retained = Arrays.copyOf(retained, capacity);
+    }
+}
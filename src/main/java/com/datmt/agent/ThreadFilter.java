@@ -0,0 +1,79 @@
+package com.datmt.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Thread filter set with "includeThreads" and "excludeThreads": comma-separated regular expressions,
+ * each matched against the whole thread name or the name of the thread's group.
+ * A thread is matched once and again only when it is renamed; the result is cached in
+ * {@link ThreadState#excluded}, so the advice skips excluded threads after one field read.
+ */
+public class ThreadFilter {
+
+    // Null if not set
+    public static List<Pattern> includeThreads;
+    public static List<Pattern> excludeThreads;
+
+    /**
+     * Parses the thread filter options. This is called by the agent's premain method.
+     *
+     * @param include Patterns of the threads to record, or null for all threads.
+     * @param exclude Patterns of the threads not to record, or null.
+     */
+    public static void init(String include, String exclude) {
+        includeThreads = parse(include, "includeThreads");
+        excludeThreads = parse(exclude, "excludeThreads");
+    }
+
+    /**
+     * Checks whether the calls of a thread are not recorded.
+     *
+     * @param thread The thread.
+     * @param name   The current name of the thread.
+     * @return Whether the thread is excluded.
+     */
+    public static boolean isExcluded(Thread thread, String name) {
+        if (includeThreads == null && excludeThreads == null) {
+            return false;
+        }
+
+        ThreadGroup group = thread.getThreadGroup();
+        String groupName = group != null ? group.getName() : null;
+        if (includeThreads != null && !matchesAny(includeThreads, name, groupName)) {
+            return true;
+        }
+        return excludeThreads != null && matchesAny(excludeThreads, name, groupName);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String name, String groupName) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches() || (groupName != null && pattern.matcher(groupName).matches())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> parse(String spec, String argName) {
+        if (spec == null || spec.trim().isEmpty()) {
+            return null;
+        }
+
+        List<Pattern> patterns = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String regex = part.trim();
+            if (regex.isEmpty()) {
+                continue;
+            }
+            try {
+                patterns.add(Pattern.compile(regex));
+            } catch (PatternSyntaxException e) {
+                System.err.println("[MethodLoggerAgent] WARNING: Invalid pattern in '" + argName + "': " + regex);
+            }
+        }
+        return patterns.isEmpty() ? null : patterns;
+    }
+}
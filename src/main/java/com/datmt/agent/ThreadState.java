@@ -0,0 +1,183 @@
+package com.datmt.agent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All per-thread state of the agent, reached through a single ThreadLocal lookup per call.
+ * The advice fetches it once on enter and hands it to exit through {@code @Advice.Enter}.
+ */
+public class ThreadState {
+
+    // The state of the current thread
+    public static final ThreadLocal<ThreadState> CURRENT = ThreadLocal.withInitial(ThreadState::create);
+
+    // The states of all live threads that have recorded calls, so their buffers can be flushed at shutdown;
+    // states of terminated threads are removed by the writer
+    public static final Set<ThreadState> ALL = ConcurrentHashMap.newKeySet();
+
+    public final Thread thread;
+    public final long threadId;
+
+    // Interned thread name, and the name it was interned from (to detect renames by reference)
+    public String threadName;
+    public String rawThreadName;
+
+    // Whether the thread is filtered out by includeThreads/excludeThreads, matched again when it is renamed
+    public boolean excluded;
+
+    // Calls in progress and the IDs for new ones
+    public final ShadowStack stack = new ShadowStack();
+    public final CallIdAllocator idAllocator = new CallIdAllocator();
+
+    // ID of the call site about to invoke a method, written by rewritten code (callSites=true)
+    public int callSite;
+
+    // Recording window of this thread (trigger with triggerScope=THREAD)
+    public boolean windowOpen;
+    public long windowEndNanos;
+
+    // Nesting level of the trigger call that closes the window on exit, or -1
+    public int triggerNesting = -1;
+
+    // Finished calls not yet handed to the writer; volatile so the writer can flush an idle thread's buffer
+    public volatile EventBuffer buffer;
+
+    // Number of calls committed by this thread (only written by the thread itself)
+    public long committedEvents;
+
+    // Finished calls of the current root, not yet known to be kept (tailThresholdNanos); null if off
+    public final CallTreeBuffer tree;
+
+    // Last finished calls, kept until a dump (flightRecorder); null if off. Replaces the buffer and the tree
+    public final EventRing ring;
+
+    public ThreadState(Thread thread) {
+        this.thread = thread;
+        this.threadId = thread.getId();
+        this.buffer = EventWriter.takeBuffer();
+        this.tree = CallTreeBuffer.enabled ? new CallTreeBuffer() : null;
+        this.ring = FlightRecorder.enabled ? new EventRing(FlightRecorder.eventsPerThread) : null;
+        threadName();
+    }
+
+    /**
+     * Gets the state of the current thread.
+     *
+     * @return The state.
+     */
+    public static ThreadState current() {
+        return CURRENT.get();
+    }
+
+    private static ThreadState create() {
+        ThreadState state = new ThreadState(Thread.currentThread());
+        ALL.add(state);
+        return state;
+    }
+
+    /**
+     * Gets the thread name, interning it (and matching it against the thread filter) again only if the thread was renamed.
+     *
+     * @return The interned thread name.
+     */
+    public String threadName() {
+        String name = thread.getName();
+        if (name != rawThreadName) {
+            rawThreadName = name;
+            threadName = name.intern();
+            excluded = ThreadFilter.isExcluded(thread, name);
+        }
+        return threadName;
+    }
+
+    /**
+     * Checks whether an excluded thread is still excluded, i.e. it was not renamed into an included thread.
+     * Only called when {@link #excluded} is set.
+     *
+     * @return Whether the thread is excluded.
+     */
+    public boolean stillExcluded() {
+        threadName();
+        return excluded;
+    }
+
+    /**
+     * Gets the buffer slot for the next finished call. The slot is reused, so every field must be set.
+     * The event only becomes visible to the writer after {@link #commitEvent}.
+     *
+     * @return The event to fill.
+     */
+    public CallEvent nextEvent() {
+        if (ring != null) {
+            return ring.next();
+        }
+        return tree != null ? tree.next() : buffer.events[buffer.size];
+    }
+
+    /**
+     * Commits the event returned by {@link #nextEvent} and hands the buffer to the writer
+     * when it is full, or at the end of a root call when it has been held long enough.
+     *
+     * @param root     Whether the event is a root call (depth 0).
+     * @param endNanos The System.nanoTime() at the end of the call.
+     */
+    public void commitEvent(boolean root, long endNanos) {
+        committedEvents++;
+        if (ring != null) {
+            ring.commit();
+            return;
+        }
+
+        if (tree != null) {
+            tree.commit();
+            if (root) {
+                if (tree.keep()) {
+                    moveTree(endNanos);
+                }
+                tree.reset();
+            }
+            return;
+        }
+
+        EventBuffer current = buffer;
+        if (current.commit(endNanos)
+                || (root && endNanos - current.firstNanos >= EventWriter.FLUSH_INTERVAL_NANOS)) {
+            buffer = EventWriter.submit(current);
+        }
+    }
+
+    /**
+     * Forgets the calls buffered for the current root when the root itself is not recorded,
+     * so they are not merged into the next root's tree.
+     */
+    public void discardTree() {
+        if (tree != null) {
+            tree.reset();
+        }
+    }
+
+    /**
+     * Moves the events of a kept tree into the buffer, swapping the event objects so nothing is copied.
+     * The buffer is handed to the writer whenever it fills up, and after the root if it has been held long enough.
+     *
+     * @param endNanos The System.nanoTime() at the end of the root call.
+     */
+    private void moveTree(long endNanos) {
+        CallEvent[] treeEvents = tree.events;
+        for (int i = 0; i < tree.size; i++) {
+            EventBuffer current = buffer;
+            CallEvent event = treeEvents[i];
+            treeEvents[i] = current.events[current.size];
+            current.events[current.size] = event;
+            if (current.commit(endNanos)) {
+                buffer = EventWriter.submit(current);
+            }
+        }
+
+        EventBuffer current = buffer;
+        if (current.size > 0 && endNanos - current.firstNanos >= EventWriter.FLUSH_INTERVAL_NANOS) {
+            buffer = EventWriter.submit(current);
+        }
+    }
+}
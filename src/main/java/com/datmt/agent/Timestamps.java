@@ -0,0 +1,41 @@
+package com.datmt.agent;
+
+import java.time.Instant;
+
+/**
+ * Maps System.nanoTime() values to wall-clock time.
+ * The advice only records nanoTime (the same clock as durationNanos); the writer turns it into the
+ * ISO-8601 "time" field using a single anchor taken when the agent starts.
+ */
+public class Timestamps {
+
+    // nanoTime and epoch time (in nanoseconds) read together at agent start
+    public static final long ANCHOR_NANO_TIME;
+    public static final long ANCHOR_EPOCH_NANOS;
+
+    static {
+        Instant now = Instant.now();
+        ANCHOR_NANO_TIME = System.nanoTime();
+        ANCHOR_EPOCH_NANOS = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Converts a System.nanoTime() value to an instant.
+     *
+     * @param nanoTime The nanoTime value.
+     * @return The corresponding instant.
+     */
+    public static Instant toInstant(long nanoTime) {
+        return Instant.ofEpochSecond(0, ANCHOR_EPOCH_NANOS + (nanoTime - ANCHOR_NANO_TIME));
+    }
+
+    /**
+     * Formats a System.nanoTime() value as an ISO-8601 timestamp.
+     *
+     * @param nanoTime The nanoTime value.
+     * @return The timestamp, e.g. "2024-01-15T10:30:45.123456789Z".
+     */
+    public static String format(long nanoTime) {
+        return toInstant(nanoTime).toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.datmt.agent;
+
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Timing-only variant of {@link MethodLoggingAdvice}, selected with "mode=TIMING".
+ * The start time is handed from enter to exit through a local variable of the instrumented method
+ * ({@code @Advice.Enter}), so enter does no ThreadLocal lookup and there is no push/pop bookkeeping;
+ * exit looks up the {@link ThreadState} once.
+ * Calls are recorded without parent linkage: every call is written as a root with depth 0.
+ */
+public class TimingAdvice {
+
+    /**
+     * This method is executed "on method enter" (before the original method's code).
+     *
+     * @return The start time, handed to {@link #onExit} via {@code @Advice.Enter}.
+     */
+    @Advice.OnMethodEnter
+    public static long onEnter() {
+        return System.nanoTime();
+    }
+
+    /**
+     * This method is executed "on method exit" (after the original method's code).
+     *
+     * @param methodId   The registry ID of the method that was executed.
+     * @param startNanos The start time, as returned by {@link #onEnter}.
+     * @param args       The captured arguments, or null if argument capture is off for the method.
+     * @param returned   The value returned by the method.
+     * @param thrown     The exception thrown by the method, if any.
+     */
+    @Advice.OnMethodExit(onThrowable = Throwable.class)
+    public static void onExit(
+            @MethodId int methodId,
+            @Advice.Enter long startNanos,
+            @CapturedArguments Object[] args,
+            @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object returned,
+            @Advice.Thrown Throwable thrown
+    ) {
+        long endNanos = System.nanoTime();
+
+        // Threads filtered out by includeThreads/excludeThreads record nothing and count towards no totals
+        ThreadState state = ThreadState.current();
+        if (state.excluded && state.stillExcluded()) {
+            return;
+        }
+
+        // Every call is its own root here, so each one is sampled on its own
+        if (MethodLoggingAdvice.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= MethodLoggingAdvice.sampleRate) {
+            return;
+        }
+
+        // After the startup detail window, calls only add to their method's totals
+        if (DetailWindow.aggregateOnly) {
+            DetailWindow.aggregate(methodId, endNanos - startNanos, -1);
+            return;
+        }
+
+        // Fast calls are dropped (there are no ancestors to keep in this mode)
+        if (endNanos - startNanos < MethodLoggingAdvice.minDurationNanos) {
+            return;
+        }
+
+        // Over the method's rate limit, the call is only added to its suppressed totals
+        if (RateLimiter.enabled && !RateLimiter.admit(methodId, endNanos, endNanos - startNanos, -1)) {
+            return;
+        }
+
+        CallEvent event = state.nextEvent();
+        MethodLoggingAdvice.fillEvent(event, state, methodId, args, returned, thrown);
+        event.endNanos = endNanos;
+        event.callId = state.idAllocator.nextId();
+        event.parentCallId = 0;
+        event.callSite = CallSiteRegistry.NONE;
+        event.depth = 0;
+        event.truncatedCalls = 0;
+        event.durationNanos = endNanos - startNanos;
+        event.selfNanos = -1; // no children are tracked
+        event.rawDurationNanos = event.durationNanos; // nothing to compensate without descendants
+        event.rawSelfNanos = -1;
+
+        state.commitEvent(true, endNanos);
+    }
+
+    /**
+     * Non-inlined variant of this advice, selected with "mode=TIMING;inline=false".
+     */
+    public static class Delegating {
+
+        @Advice.OnMethodEnter(inline = false)
+        public static long onEnter() {
+            return TimingAdvice.onEnter();
+        }
+
+        @Advice.OnMethodExit(inline = false, onThrowable = Throwable.class)
+        public static void onExit(
+                @MethodId int methodId,
+                @Advice.Enter long startNanos,
+                @CapturedArguments Object[] args,
+                @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object returned,
+                @Advice.Thrown Throwable thrown
+        ) {
+            TimingAdvice.onExit(methodId, startNanos, args, returned, thrown);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.datmt.agent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a boolean advice parameter that receives whether the instrumented method is the trigger
+ * (trigger option). The flag is written into the woven code as a constant, see {@link TriggerMapping}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Trigger {
+}
@@ -0,0 +1,43 @@
+package com.datmt.agent;
+
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.method.ParameterDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.implementation.bytecode.constant.IntegerConstant;
+
+/**
+ * Binds {@link Trigger} parameters of the advice to whether the instrumented method is the trigger.
+ * Must be registered with {@code Advice.withCustomMapping().bind(TriggerMapping.INSTANCE)}.
+ */
+public class TriggerMapping implements Advice.OffsetMapping, Advice.OffsetMapping.Factory<Trigger> {
+
+    public static final TriggerMapping INSTANCE = new TriggerMapping();
+
+    @Override
+    public Class<Trigger> getAnnotationType() {
+        return Trigger.class;
+    }
+
+    @Override
+    public Advice.OffsetMapping make(ParameterDescription.InDefinedShape target,
+                                     AnnotationDescription.Loadable<Trigger> annotation,
+                                     AdviceType adviceType) {
+        if (!target.getType().asErasure().represents(boolean.class)) {
+            throw new IllegalStateException("@Trigger must be used on a boolean parameter: " + target);
+        }
+        return this;
+    }
+
+    @Override
+    public Target resolve(TypeDescription instrumentedType,
+                          MethodDescription instrumentedMethod,
+                          Assigner assigner,
+                          Advice.ArgumentHandler argumentHandler,
+                          Sort sort) {
+        boolean trigger = TriggerWindow.isTrigger(instrumentedType.getName(), instrumentedMethod.getName());
+        return new Target.ForStackManipulation(IntegerConstant.forValue(trigger));
+    }
+}
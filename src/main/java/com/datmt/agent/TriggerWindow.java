@@ -0,0 +1,160 @@
+package com.datmt.agent;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording windows opened by a trigger method, enabled with "trigger=com.example.Service#method".
+ * Nothing is recorded until the trigger method is entered; then the thread that entered it
+ * ("triggerScope=THREAD") or all threads ("triggerScope=ALL") are recorded until the trigger exits,
+ * or for "triggerWindowMillis" if set, and recording switches off again.
+ * The trigger flag is woven into each method as a constant (see {@link Trigger}), so while no window
+ * is open the enter advice only reads {@link #recording} and the thread's own window.
+ */
+public class TriggerWindow {
+
+    // Whether every call is recorded: true without a trigger and while an ALL-scope window is open
+    public static volatile boolean recording = true;
+
+    public static String triggerClass;
+    public static String triggerMethod;
+    public static boolean allThreads = false;
+
+    // Length of a window; 0 closes it when the trigger exits
+    public static long windowNanos = 0;
+
+    // End of the open ALL-scope window (windowNanos > 0)
+    public static volatile long windowEndNanos;
+
+    // Closes ALL-scope windows after windowNanos
+    private static Timer timer;
+
+    // Threads inside the trigger, in ALL scope without a window length; guarded by the class lock
+    private static int activeTriggers = 0;
+
+    /**
+     * Parses the trigger options. Needed before methods are registered, so the trigger can be flagged.
+     *
+     * @param trigger      The trigger method, "fully.qualified.Class#method".
+     * @param scope        THREAD or ALL.
+     * @param windowMillis The length of a window, or 0 to record until the trigger exits.
+     */
+    public static void init(String trigger, String scope, long windowMillis) {
+        int hash = trigger.indexOf('#');
+        if (hash <= 0 || hash == trigger.length() - 1) {
+            System.err.println("[MethodLoggerAgent] WARNING: Invalid trigger '" + trigger + "', expected Class#method; recording everything");
+            return;
+        }
+
+        triggerClass = trigger.substring(0, hash);
+        triggerMethod = trigger.substring(hash + 1);
+        allThreads = "ALL".equalsIgnoreCase(scope);
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        if (allThreads && windowNanos > 0) {
+            timer = new Timer("method-logger-trigger", true);
+        }
+    }
+
+    /**
+     * Switches recording off until the trigger is entered, if a trigger is configured.
+     */
+    public static void arm() {
+        if (triggerClass != null) {
+            recording = false;
+        }
+    }
+
+    /**
+     * Checks whether a method is the trigger.
+     *
+     * @param typeName   The fully-qualified name of the declaring type.
+     * @param methodName The method name.
+     * @return Whether the method opens recording windows.
+     */
+    public static boolean isTrigger(String typeName, String methodName) {
+        return triggerClass != null && triggerClass.equals(typeName) && triggerMethod.equals(methodName);
+    }
+
+    /**
+     * Decides whether a call other than the trigger is recorded while {@link #recording} is off.
+     *
+     * @param state The state of the current thread.
+     * @return Whether the call is recorded.
+     */
+    public static boolean admit(ThreadState state) {
+        if (!state.windowOpen) {
+            return false;
+        }
+        if (windowNanos > 0 && System.nanoTime() - state.windowEndNanos >= 0) {
+            state.windowOpen = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by the enter advice for every call of the trigger; opens a window, or extends the open one.
+     *
+     * @param state The state of the current thread.
+     */
+    public static void open(ThreadState state) {
+        long endNanos = System.nanoTime() + windowNanos;
+        if (windowNanos == 0) {
+            // Closed when this call exits, unless an enclosing trigger call already holds the window
+            if (state.triggerNesting >= 0) {
+                return;
+            }
+            ShadowStack stack = state.stack;
+            state.triggerNesting = stack.size + stack.unsampledDepth + stack.overflowDepth;
+            if (allThreads) {
+                triggerEntered();
+                return;
+            }
+        }
+
+        if (!allThreads) {
+            state.windowOpen = true;
+            state.windowEndNanos = endNanos;
+            return;
+        }
+
+        recording = true;
+        windowEndNanos = endNanos;
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                // A later trigger call may have extended the window
+                if (System.nanoTime() - windowEndNanos >= 0) {
+                    recording = false;
+                }
+            }
+        }, TimeUnit.NANOSECONDS.toMillis(windowNanos));
+    }
+
+    /**
+     * Called by the exit advice when the trigger call that opened the window exits.
+     *
+     * @param state The state of the current thread.
+     */
+    public static void triggerExited(ThreadState state) {
+        state.triggerNesting = -1;
+        if (allThreads) {
+            triggerLeft();
+        } else {
+            state.windowOpen = false;
+        }
+    }
+
+    // ALL scope without a window length: recording while any thread is inside the trigger
+    private static synchronized void triggerEntered() {
+        activeTriggers++;
+        recording = true;
+    }
+
+    private static synchronized void triggerLeft() {
+        if (--activeTriggers == 0) {
+            recording = false;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.datmt.agent;
+
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transform-time analyzer that keeps the advice out of trivial methods (getters, setters, tiny leaf methods),
+ * which are the vast majority of calls but rarely interesting. It reads the original bytecode of each
+ * matched class and skips methods that:
+ * <ul>
+ *     <li>have fewer than "minInstructions" instructions,</li>
+ *     <li>contain no invoke instructions (leaf methods, only with "skipLeafMethods=true"), or</li>
+ *     <li>only read or write a single field (accessors).</li>
+ * </ul>
+ * Every skipped method is printed when its class is transformed, and the total at exit, so the threshold can be tuned.
+ * Off by default, so every matched method is recorded; enabled with "skipTrivial=true".
+ */
+public class TrivialMethodFilter {
+
+    /**
+     * What the analyzer found in a method's bytecode.
+     */
+    public static class MethodShape {
+        public int instructions;
+        public boolean invokes;
+        public boolean accessor = true; // only loads of locals, at most one field access and a return
+        public int fieldAccesses;
+    }
+
+    public static boolean enabled = false;
+    public static int minInstructions = 5;
+    public static boolean skipLeafMethods = false;
+
+    public static final AtomicLong skippedMethods = new AtomicLong();
+
+    /**
+     * Initializes the filter from the agent options.
+     *
+     * @param skipTrivial Whether trivial methods are skipped at all.
+     * @param minInstr    Methods with fewer instructions are skipped.
+     * @param skipLeaf    Whether methods without invoke instructions are skipped.
+     */
+    public static void init(boolean skipTrivial, int minInstr, boolean skipLeaf) {
+        enabled = skipTrivial;
+        minInstructions = minInstr;
+        skipLeafMethods = skipLeaf;
+    }
+
+    /**
+     * Analyzes a class and finds its methods that should not be instrumented.
+     *
+     * @param type        The type being transformed.
+     * @param classLoader The class loader of the type.
+     * @return Method key (see {@link #keyOf}) to the reason it is skipped; empty if disabled or unreadable.
+     */
+    public static Map<String, String> trivialMethodsOf(TypeDescription type, ClassLoader classLoader) {
+        if (!enabled) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            byte[] classFile = Helpers.locateClassFile(type.getName(), classLoader);
+            if (classFile == null) {
+                return Collections.emptyMap();
+            }
+
+            Map<String, String> reasons = new HashMap<>();
+            for (Map.Entry<String, MethodShape> entry : analyze(classFile).entrySet()) {
+                String reason = reasonToSkip(entry.getValue());
+                String methodName = entry.getKey().substring(0, entry.getKey().indexOf('('));
+                if (reason != null && !TriggerWindow.isTrigger(type.getName(), methodName)) {
+                    reasons.put(entry.getKey(), reason);
+                }
+            }
+            return reasons;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[MethodLoggerAgent] WARNING: Could not analyze " + type.getName() + ": " + e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Gets the key of a method in the map returned by {@link #trivialMethodsOf}.
+     *
+     * @param method The method.
+     * @return The method name + descriptor.
+     */
+    public static String keyOf(MethodDescription method) {
+        return method.getInternalName() + method.getDescriptor();
+    }
+
+    /**
+     * Creates a matcher for the methods found by {@link #trivialMethodsOf}.
+     *
+     * @param trivialMethods The trivial methods of a type.
+     * @return A matcher for these methods.
+     */
+    public static ElementMatcher<MethodDescription> in(Map<String, String> trivialMethods) {
+        return method -> trivialMethods.containsKey(keyOf(method));
+    }
+
+    /**
+     * Prints a skipped method in the startup report.
+     *
+     * @param type   The type of the method.
+     * @param method The skipped method.
+     * @param reason Why it is skipped.
+     */
+    public static void report(TypeDescription type, MethodDescription method, String reason) {
+        skippedMethods.incrementAndGet();
+        System.out.println("[MethodLoggerAgent] Skipping trivial method: " + type.getName() + "#" + keyOf(method) + " (" + reason + ")");
+    }
+
+    /**
+     * Prints how many methods were skipped, to tune minInstructions against. Runs in a JVM shutdown hook.
+     */
+    public static void printSummary() {
+        System.out.println("[MethodLoggerAgent] Skipped " + skippedMethods.get() + " trivial methods (minInstructions="
+                + minInstructions + ", skipLeafMethods=" + skipLeafMethods + ")");
+    }
+
+    /**
+     * Decides whether a method is trivial.
+     *
+     * @param shape The analyzed method.
+     * @return Why the method is skipped, or null if it is instrumented.
+     */
+    public static String reasonToSkip(MethodShape shape) {
+        if (shape.accessor && shape.fieldAccesses == 1) {
+            return "field accessor";
+        }
+        if (shape.instructions < minInstructions) {
+            return shape.instructions + " instructions < minInstructions=" + minInstructions;
+        }
+        if (skipLeafMethods && !shape.invokes) {
+            return "no invoke instructions";
+        }
+        return null;
+    }
+
+    /**
+     * Reads the instructions of every method with code in a class file.
+     *
+     * @param classFile The class file.
+     * @return Method name + descriptor to its shape.
+     */
+    public static Map<String, MethodShape> analyze(byte[] classFile) {
+        Map<String, MethodShape> shapes = new HashMap<>();
+        new ClassReader(classFile).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                MethodShape shape = new MethodShape();
+                shapes.put(name + descriptor, shape);
+                return new ShapeVisitor(shape);
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return shapes;
+    }
+
+    /**
+     * Counts the instructions of a method and checks for invokes and accessor shape.
+     */
+    private static class ShapeVisitor extends MethodVisitor {
+        private final MethodShape shape;
+
+        ShapeVisitor(MethodShape shape) {
+            super(Opcodes.ASM9);
+            this.shape = shape;
+        }
+
+        private void instruction(boolean allowedInAccessor) {
+            shape.instructions++;
+            if (!allowedInAccessor) {
+                shape.accessor = false;
+            }
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            instruction(opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            instruction(opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            instruction(true);
+            shape.fieldAccesses++;
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            instruction(false);
+            shape.invokes = true;
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            instruction(false);
+            shape.invokes = true;
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            instruction(false);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            instruction(false);
+        }
+    }
+}
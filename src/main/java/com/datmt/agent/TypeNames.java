@@ -0,0 +1,66 @@
+package com.datmt.agent;
+
+import java.util.Arrays;
+
+/**
+ * Dictionary of the runtime type names reported for arguments, return values and exceptions.
+ * Each class is resolved once per JVM through a {@link ClassValue} to a dense int ID;
+ * events carry only the ID and the writer looks the name up.
+ */
+public class TypeNames {
+
+    // ID of the "null" pseudo-type (null argument or return value)
+    public static final int NULL = 0;
+
+    // Type name by ID. A new slot is written under the class lock, into a copy when the array grows,
+    // and published by the volatile writes of names and size that follow
+    public static volatile String[] names = new String[256];
+
+    // Number of registered names
+    public static volatile int size = 0;
+
+    // Class to its ID, computed on first use of each class
+    public static final ClassValue<Integer> IDS = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return register(type.getSimpleName());
+        }
+    };
+
+    static {
+        register("null");
+    }
+
+    /**
+     * Gets the type ID of a value.
+     *
+     * @param value The value, may be null.
+     * @return The ID of the value's runtime type, or {@link #NULL}.
+     */
+    public static int idOf(Object value) {
+        return value == null ? NULL : IDS.get(value.getClass());
+    }
+
+    /**
+     * Gets the name of a type ID.
+     *
+     * @param id The type ID.
+     * @return The simple name of the type.
+     */
+    public static String name(int id) {
+        String[] current = names;
+        return (id >= 0 && id < current.length && current[id] != null) ? current[id] : "?";
+    }
+
+    private static synchronized int register(String name) {
+        int id = size;
+        String[] current = names;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = name;
+        names = current;
+        size = id + 1;
+        return id;
+    }
+}
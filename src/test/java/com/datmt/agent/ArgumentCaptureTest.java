@@ -0,0 +1,63 @@
+package com.datmt.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArgumentCaptureTest {
+
+    @Test
+    void emptyOptionHasNoRules() {
+        assertTrue(ArgumentCapture.parseRules(null).isEmpty());
+        assertTrue(ArgumentCapture.parseRules(" ").isEmpty());
+    }
+
+    @Test
+    void typePrefixCapturesEveryParameterOfEveryMethod() {
+        ArgumentCapture.Rule rule = ArgumentCapture.parseRules("com.example.util").get(0);
+
+        assertEquals("com.example.util", rule.typePrefix);
+        assertNull(rule.methodName);
+        assertNull(rule.indices);
+    }
+
+    @Test
+    void methodAndIndicesAreParsed() {
+        ArgumentCapture.Rule rule = ArgumentCapture.parseRules("com.example.OrderService#placeOrder:0|2").get(0);
+
+        assertEquals("com.example.OrderService", rule.typePrefix);
+        assertEquals("placeOrder", rule.methodName);
+        assertArrayEquals(new int[]{0, 2}, rule.indices);
+    }
+
+    @Test
+    void wildcardMatchesEveryType() {
+        ArgumentCapture.Rule rule = ArgumentCapture.parseRules("*:1").get(0);
+
+        assertEquals("", rule.typePrefix);
+        assertArrayEquals(new int[]{1}, rule.indices);
+    }
+
+    @Test
+    void rulesAreTrimmedAndEmptyEntriesSkipped() {
+        List<ArgumentCapture.Rule> rules = ArgumentCapture.parseRules(" com.example.A#run , ,com.example.B: 1 | 3 ");
+
+        assertEquals(2, rules.size());
+        assertEquals("com.example.A", rules.get(0).typePrefix);
+        assertEquals("run", rules.get(0).methodName);
+        assertEquals("com.example.B", rules.get(1).typePrefix);
+        assertArrayEquals(new int[]{1, 3}, rules.get(1).indices);
+    }
+
+    @Test
+    void invalidIndexIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ArgumentCapture.parseRules("com.example.A:x"));
+        assertThrows(IllegalArgumentException.class, () -> ArgumentCapture.parseRules("com.example.A:-1"));
+    }
+}
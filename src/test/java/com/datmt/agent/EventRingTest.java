@@ -0,0 +1,124 @@
+package com.datmt.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventRingTest {
+
+    // Records events 0..count-1 (as their call ID and durations) into the ring
+    private static void record(EventRing ring, long from, long count) {
+        for (long n = from; n < from + count; n++) {
+            CallEvent event = ring.next();
+            event.callId = n;
+            event.durationNanos = n;
+            event.selfNanos = n;
+            ring.commit();
+        }
+    }
+
+    private static long[] callIds(CallEvent[] events) {
+        long[] ids = new long[events.length];
+        for (int i = 0; i < events.length; i++) {
+            ids[i] = events[i].callId;
+        }
+        return ids;
+    }
+
+    @Test
+    void snapshotBeforeWrapAroundReturnsEveryEvent() {
+        EventRing ring = new EventRing(4);
+        record(ring, 0, 3);
+
+        assertEquals("[0, 1, 2]", Arrays.toString(callIds(ring.snapshot())));
+    }
+
+    @Test
+    void snapshotAfterWrapAroundReturnsTheNewestEvents() {
+        EventRing ring = new EventRing(4);
+        record(ring, 0, 10);
+
+        // Event 6 shares its slot with event 10, which the owning thread may be filling
+        assertEquals("[7, 8, 9]", Arrays.toString(callIds(ring.snapshot())));
+    }
+
+    @Test
+    void repeatedSnapshotsReturnOnlyNewEvents() {
+        EventRing ring = new EventRing(4);
+        record(ring, 0, 10);
+        ring.snapshot();
+
+        record(ring, 10, 2);
+        assertEquals("[10, 11]", Arrays.toString(callIds(ring.snapshot())));
+        assertEquals(0, ring.snapshot().length);
+
+        // More events than slots since the last snapshot
+        record(ring, 12, 9);
+        assertEquals("[18, 19, 20]", Arrays.toString(callIds(ring.snapshot())));
+    }
+
+    @Test
+    void firstIntactSkipsEventsOverwrittenDuringTheCopy() {
+        // Counter unchanged: only the oldest slot may be being refilled
+        assertEquals(7, EventRing.firstIntact(6, 10, 4));
+        // Two more events committed during the copy of events 6..9
+        assertEquals(9, EventRing.firstIntact(6, 12, 4));
+        // The whole copy overwritten
+        assertEquals(17, EventRing.firstIntact(6, 20, 4));
+        // Ring not full yet
+        assertEquals(0, EventRing.firstIntact(0, 3, 4));
+    }
+
+    @Test
+    void copyOfASlotBeingRefilledDoesNotFail() {
+        // Counts already set by the owner, arrays not allocated or grown yet
+        CallEvent refilling = new CallEvent();
+        refilling.callerCount = 3;
+        refilling.argCount = 2;
+        refilling.argTypes = new int[1];
+
+        CallEvent copy = new CallEvent();
+        copy.copyFrom(refilling);
+
+        assertEquals(0, copy.callerCount);
+        assertEquals(1, copy.argCount);
+    }
+
+    @Test
+    void snapshotDuringConcurrentOverwritesReturnsOnlyIntactEvents() throws InterruptedException {
+        EventRing ring = new EventRing(64);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread owner = new Thread(() -> {
+            long n = 0;
+            while (!stop.get()) {
+                record(ring, n, 1);
+                n++;
+            }
+        });
+        owner.start();
+
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                // Copy the whole ring each time, so the owner keeps overwriting slots during the copy
+                ring.dumped = 0;
+                CallEvent[] events = ring.snapshot();
+                for (int j = 0; j < events.length; j++) {
+                    CallEvent event = events[j];
+                    // A torn copy mixes fields of two events
+                    assertEquals(event.callId, event.durationNanos, "torn event");
+                    assertEquals(event.callId, event.selfNanos, "torn event");
+                    if (j > 0) {
+                        assertEquals(events[j - 1].callId + 1, event.callId, "events out of order");
+                    }
+                }
+            }
+        } finally {
+            stop.set(true);
+            owner.join();
+        }
+    }
+}
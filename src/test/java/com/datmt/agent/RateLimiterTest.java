@@ -0,0 +1,99 @@
+package com.datmt.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    private static final long START = TimeUnit.SECONDS.toNanos(100);
+
+    private MethodRegistry.MethodMetadata[] savedTable;
+    private int savedSize;
+
+    @BeforeEach
+    void registerMethod() {
+        savedTable = MethodRegistry.table;
+        savedSize = MethodRegistry.size;
+        RateLimiter.init(10);
+        MethodRegistry.table = new MethodRegistry.MethodMetadata[]{
+                new MethodRegistry.MethodMetadata(0, "com.example", "Service", "handle",
+                        new String[0], new String[0], ArgumentCapture.NONE, "void")
+        };
+        MethodRegistry.size = 1;
+    }
+
+    @AfterEach
+    void restore() {
+        MethodRegistry.table = savedTable;
+        MethodRegistry.size = savedSize;
+        RateLimiter.init(0);
+    }
+
+    // Admits calls of method 0 ending at the given time, and returns how many were recorded
+    private static int admitted(int calls, long endNanos) {
+        int recorded = 0;
+        for (int i = 0; i < calls; i++) {
+            if (RateLimiter.admit(0, endNanos, 100, 10)) {
+                recorded++;
+            }
+        }
+        return recorded;
+    }
+
+    @Test
+    void firstCallsMayUseTheWholeBurst() {
+        assertEquals(10, admitted(15, START));
+    }
+
+    @Test
+    void bucketRefillsAtTheConfiguredRate() {
+        admitted(10, START);
+
+        // 10 per second: one token every 100 ms
+        assertEquals(0, admitted(5, START + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(1, admitted(5, START + TimeUnit.MILLISECONDS.toNanos(150)));
+        assertEquals(3, admitted(5, START + TimeUnit.MILLISECONDS.toNanos(450)));
+    }
+
+    @Test
+    void burstIsCappedAtOneSecondOfTokens() {
+        admitted(10, START);
+
+        assertEquals(10, admitted(50, START + TimeUnit.SECONDS.toNanos(60)));
+    }
+
+    @Test
+    void unknownMethodsAreAlwaysRecorded() {
+        for (int i = 0; i < 50; i++) {
+            assertTrue(RateLimiter.admit(42, START, 100, 10));
+        }
+    }
+
+    @Test
+    void suppressedCallsAreSummarizedOnce() {
+        admitted(10, START);
+        assertFalse(RateLimiter.admit(0, START, 100, 10));
+        assertFalse(RateLimiter.admit(0, START, 200, -1)); // self time unknown (mode=TIMING)
+        assertFalse(RateLimiter.admit(0, START, 300, 30));
+
+        List<Map<String, Object>> summaries = RateLimiter.drainSummaries(START);
+        assertEquals(1, summaries.size());
+        Map<String, Object> summary = summaries.get(0);
+        assertEquals("summary", summary.get("type"));
+        assertEquals("handle", summary.get("method"));
+        assertEquals(3L, summary.get("suppressedCalls"));
+        assertEquals(600L, summary.get("suppressedDurationNanos"));
+        assertEquals(40L, summary.get("suppressedSelfNanos"));
+
+        assertTrue(RateLimiter.drainSummaries(START).isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package com.datmt.agent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThreadFilterTest {
+
+    private static final ThreadGroup POOL = new ThreadGroup("http-pool");
+
+    @AfterEach
+    void reset() {
+        ThreadFilter.init(null, null);
+    }
+
+    private static boolean excluded(String name) {
+        return ThreadFilter.isExcluded(new Thread(name), name);
+    }
+
+    @Test
+    void withoutPatternsNoThreadIsExcluded() {
+        ThreadFilter.init(null, " ");
+
+        assertFalse(excluded("main"));
+    }
+
+    @Test
+    void includePatternsMustMatchTheWholeName() {
+        ThreadFilter.init("worker-\\d+", null);
+
+        assertFalse(excluded("worker-1"));
+        assertTrue(excluded("worker-1-sub"));
+        assertTrue(excluded("main"));
+    }
+
+    @Test
+    void patternsAlsoMatchTheThreadGroup() {
+        ThreadFilter.init("http-pool", null);
+
+        assertFalse(ThreadFilter.isExcluded(new Thread(POOL, "exec-1"), "exec-1"));
+        assertTrue(excluded("exec-1"));
+    }
+
+    @Test
+    void excludePatternsApplyToIncludedThreads() {
+        ThreadFilter.init("worker-.*, main", "worker-2");
+
+        assertFalse(excluded("worker-1"));
+        assertTrue(excluded("worker-2"));
+        assertFalse(excluded("main"));
+    }
+
+    @Test
+    void invalidPatternsAreIgnored() {
+        ThreadFilter.init("[unclosed", "(");
+
+        assertNull(ThreadFilter.includeThreads);
+        assertNull(ThreadFilter.excludeThreads);
+        assertFalse(excluded("main"));
+    }
+}